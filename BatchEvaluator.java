@@ -0,0 +1,428 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class BatchEvaluator {
+    /*
+    Evaluates one expression over whole columns of variable values at once.
+    The expression is compiled into column nodes that each work on a chunk of CHUNK values at a time:
+    a Sum adds its children's columns, a TrigFunc applies its function over its argument's column, and so on.
+    The inner loops are plain loops over double[] so the JIT can vectorize them.
+    Children that need their own column borrow a scratch buffer from a per thread pool, so once the pool is warm
+    evaluating allocates nothing. Batches larger than PARALLEL_THRESHOLD are split across cores with fork/join.
+    Compiling and evaluating column nodes recurse once per level, so trees deeper than ExprCompiler.MAX_DEPTH
+    become a single node that evaluates each row through FlatExpr instead, which works at any depth.
+    */
+
+    static final int CHUNK = 1024; //values per node pass, small enough for the scratch buffers to stay in cache
+    static final int PARALLEL_THRESHOLD = 1 << 16; //smaller batches are evaluated on the calling thread
+
+    private static final ThreadLocal<BufferPool> POOLS = ThreadLocal.withInitial(BufferPool::new);
+
+    private final ColumnNode root;
+    private final int width; //number of variable columns expected
+
+    public BatchEvaluator(Expr expr, String... variables){
+        this.width = variables.length;
+        this.root = compile(expr, variables);
+    }
+
+    public double[] evaluate(double[][] columns){
+        if(columns.length == 0){
+            throw new IllegalArgumentException("no columns to take the number of rows from, use evaluate(columns, out)");
+        }
+        double[] out = new double[columns[0].length];
+        evaluate(columns, out);
+        return out;
+    }
+
+    public void evaluate(double[][] columns, double[] out){ //columns[n] holds the values of the nth variable, out gets one result per row
+        if(columns.length != width){
+            throw new IllegalArgumentException("expected " + width + " columns but got " + columns.length);
+        }
+        for(double[] column : columns){
+            if(column.length < out.length){
+                throw new IllegalArgumentException("column is shorter than the output");
+            }
+        }
+        if(out.length > PARALLEL_THRESHOLD){
+            ForkJoinPool.commonPool().invoke(new Task(columns, out, 0, out.length));
+        } else {
+            evaluateRange(columns, out, 0, out.length);
+        }
+    }
+
+    private void evaluateRange(double[][] columns, double[] out, int from, int to){
+        BufferPool pool = POOLS.get();
+        for(int start = from; start < to; start += CHUNK){
+            root.eval(columns, start, Math.min(CHUNK, to - start), out, start, pool);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class Task extends RecursiveAction { //splits the rows in half until they are under the threshold
+        private final double[][] columns;
+        private final double[] out;
+        private final int from;
+        private final int to;
+
+        Task(double[][] columns, double[] out, int from, int to){
+            this.columns = columns;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from <= PARALLEL_THRESHOLD){
+                evaluateRange(columns, out, from, to);
+                return;
+            }
+            int mid = from + ((to - from) / 2 / CHUNK) * CHUNK; //keeps the chunks aligned
+            invokeAll(new Task(columns, out, from, mid), new Task(columns, out, mid, to));
+        }
+    }
+
+    static ColumnNode compile(Expr expr, String[] variables){
+        if(Traversal.deeperThan(expr, ExprCompiler.MAX_DEPTH)){
+            return new RowNode(FlatExpr.of(expr).evaluator(variables), variables.length);
+        }
+        return compileNode(expr, variables);
+    }
+
+    private static ColumnNode compileNode(Expr expr, String[] variables){
+        if(expr instanceof Constant){
+            if(expr.num == null){
+                throw new RuntimeException("constant " + expr.name + " has no value");
+            }
+            return new ConstNode(expr.num);
+        }
+        else if(expr instanceof Variable){
+            for(int i = 0; i < variables.length; i++){
+                if(variables[i].equals(expr.name)){
+                    return new VarNode(i);
+                }
+            }
+            throw new RuntimeException("unbound variable " + expr.name);
+        }
+        else if(expr instanceof Sum sum){
+            ColumnNode[] addends = compileAll(sum.addends, variables);
+            return fold(new SumNode(addends), addends);
+        }
+        else if(expr instanceof Product product){
+            double coefficient = 1;
+            ArrayList<Expr> rest = new ArrayList<>();
+            for(Expr factor : product.factors){ //minus signs become part of the coefficient
+                if(factor.isMinusSign()){
+                    coefficient = -coefficient;
+                } else {
+                    rest.add(factor);
+                }
+            }
+            ColumnNode[] factors = compileAll(rest, variables);
+            return fold(new ProductNode(coefficient, factors), factors);
+        }
+        else if(expr instanceof Power power){
+            ColumnNode base = compileNode(power.base, variables);
+            ColumnNode exponent = compileNode(power.exponent, variables);
+            return fold(new PowerNode(base, exponent, power.isRoot), base, exponent);
+        }
+        else if(expr instanceof Fraction fraction){
+            ColumnNode numerator = compileNode(fraction.numerator, variables);
+            ColumnNode denominator = compileNode(fraction.denominator, variables);
+            return fold(new FractionNode(numerator, denominator), numerator, denominator);
+        }
+        else if(expr instanceof TrigFunc trig){
+            ColumnNode arg = compileNode(trig.val, variables);
+            return fold(new TrigNode(trig.func, arg), arg);
+        }
+        else if(expr instanceof Integral){
+            throw new IllegalArgumentException("integrals can't be evaluated over columns, Quadrature.integrate evaluates them over a range");
+        }
+        throw new RuntimeException("unknown expression type " + expr.getClass().getSimpleName());
+    }
+
+    private static ColumnNode[] compileAll(List<Expr> exprs, String[] variables){
+        ColumnNode[] out = new ColumnNode[exprs.size()];
+        for(int i = 0; i < out.length; i++){
+            out[i] = compileNode(exprs.get(i), variables);
+        }
+        return out;
+    }
+
+    private static ColumnNode fold(ColumnNode node, ColumnNode... children){ //replaces nodes whose children are all constants by their value
+        for(ColumnNode child : children){
+            if(!(child instanceof ConstNode)){
+                return node;
+            }
+        }
+        double[] one = new double[1];
+        node.eval(null, 0, 1, one, 0, new BufferPool());
+        return new ConstNode(one[0]);
+    }
+
+    static final class BufferPool { //stack of CHUNK sized scratch buffers owned by one thread
+        private final ArrayDeque<double[]> free = new ArrayDeque<>();
+
+        double[] take(){
+            double[] buffer = free.poll();
+            return buffer == null ? new double[CHUNK] : buffer;
+        }
+
+        void give(double[] buffer){
+            free.push(buffer);
+        }
+    }
+
+    static abstract class ColumnNode {
+        abstract void eval(double[][] columns, int from, int len, double[] out, int off, BufferPool pool); //writes rows [from, from+len) into out starting at off
+    }
+
+    static final class ConstNode extends ColumnNode {
+        final double value;
+
+        ConstNode(double value){
+            this.value = value;
+        }
+
+        @Override
+        void eval(double[][] columns, int from, int len, double[] out, int off, BufferPool pool){
+            Arrays.fill(out, off, off + len, value);
+        }
+    }
+
+    static final class VarNode extends ColumnNode {
+        final int slot;
+
+        VarNode(int slot){
+            this.slot = slot;
+        }
+
+        @Override
+        void eval(double[][] columns, int from, int len, double[] out, int off, BufferPool pool){
+            System.arraycopy(columns[slot], from, out, off, len);
+        }
+    }
+
+    static final class SumNode extends ColumnNode {
+        final ColumnNode[] addends;
+
+        SumNode(ColumnNode[] addends){
+            this.addends = addends;
+        }
+
+        @Override
+        void eval(double[][] columns, int from, int len, double[] out, int off, BufferPool pool){
+            addends[0].eval(columns, from, len, out, off, pool);
+            for(int n = 1; n < addends.length; n++){
+                ColumnNode addend = addends[n];
+                if(addend instanceof ConstNode c){ //leaves are read in place instead of copied into scratch
+                    double v = c.value;
+                    for(int i = 0; i < len; i++){
+                        out[off + i] += v;
+                    }
+                } else if(addend instanceof VarNode v){
+                    double[] column = columns[v.slot];
+                    for(int i = 0; i < len; i++){
+                        out[off + i] += column[from + i];
+                    }
+                } else {
+                    double[] buffer = pool.take();
+                    addend.eval(columns, from, len, buffer, 0, pool);
+                    for(int i = 0; i < len; i++){
+                        out[off + i] += buffer[i];
+                    }
+                    pool.give(buffer);
+                }
+            }
+        }
+    }
+
+    static final class ProductNode extends ColumnNode {
+        final double coefficient;
+        final ColumnNode[] factors;
+
+        ProductNode(double coefficient, ColumnNode[] factors){
+            this.coefficient = coefficient;
+            this.factors = factors;
+        }
+
+        @Override
+        void eval(double[][] columns, int from, int len, double[] out, int off, BufferPool pool){
+            if(factors.length == 0){
+                Arrays.fill(out, off, off + len, coefficient);
+                return;
+            }
+            factors[0].eval(columns, from, len, out, off, pool);
+            for(int n = 1; n < factors.length; n++){
+                ColumnNode factor = factors[n];
+                if(factor instanceof ConstNode c){
+                    double v = c.value;
+                    for(int i = 0; i < len; i++){
+                        out[off + i] *= v;
+                    }
+                } else if(factor instanceof VarNode v){
+                    double[] column = columns[v.slot];
+                    for(int i = 0; i < len; i++){
+                        out[off + i] *= column[from + i];
+                    }
+                } else {
+                    double[] buffer = pool.take();
+                    factor.eval(columns, from, len, buffer, 0, pool);
+                    for(int i = 0; i < len; i++){
+                        out[off + i] *= buffer[i];
+                    }
+                    pool.give(buffer);
+                }
+            }
+            if(coefficient != 1){
+                for(int i = 0; i < len; i++){
+                    out[off + i] *= coefficient;
+                }
+            }
+        }
+    }
+
+    static final class PowerNode extends ColumnNode {
+        final ColumnNode base;
+        final ColumnNode exponent;
+        final boolean isRoot;
+
+        PowerNode(ColumnNode base, ColumnNode exponent, boolean isRoot){
+            this.base = base;
+            this.exponent = exponent;
+            this.isRoot = isRoot;
+        }
+
+        @Override
+        void eval(double[][] columns, int from, int len, double[] out, int off, BufferPool pool){
+            base.eval(columns, from, len, out, off, pool);
+            if(exponent instanceof ConstNode c){ //a constant exponent or root index gets a specialized loop
+                double n = c.value;
+                if(isRoot && n == 2 || !isRoot && n == 0.5){
+                    for(int i = 0; i < len; i++){
+                        out[off + i] = Math.sqrt(out[off + i]);
+                    }
+                } else if(isRoot && n == 3){
+                    for(int i = 0; i < len; i++){
+                        out[off + i] = Math.cbrt(out[off + i]);
+                    }
+                } else if(isRoot && ExprCompiler.isOdd(n)){ //real for negative values, like Math.cbrt
+                    double p = 1.0 / n;
+                    for(int i = 0; i < len; i++){
+                        double b = out[off + i];
+                        out[off + i] = b < 0 ? -Math.pow(-b, p) : Math.pow(b, p);
+                    }
+                } else if(!isRoot && n == 2){
+                    for(int i = 0; i < len; i++){
+                        out[off + i] *= out[off + i];
+                    }
+                } else {
+                    double p = isRoot ? 1.0 / n : n;
+                    for(int i = 0; i < len; i++){
+                        out[off + i] = Math.pow(out[off + i], p);
+                    }
+                }
+                return;
+            }
+            double[] buffer = pool.take();
+            exponent.eval(columns, from, len, buffer, 0, pool);
+            if(isRoot){
+                for(int i = 0; i < len; i++){
+                    out[off + i] = ExprCompiler.nthRoot(out[off + i], buffer[i]);
+                }
+            } else {
+                for(int i = 0; i < len; i++){
+                    out[off + i] = Math.pow(out[off + i], buffer[i]);
+                }
+            }
+            pool.give(buffer);
+        }
+    }
+
+    static final class FractionNode extends ColumnNode {
+        final ColumnNode numerator;
+        final ColumnNode denominator;
+
+        FractionNode(ColumnNode numerator, ColumnNode denominator){
+            this.numerator = numerator;
+            this.denominator = denominator;
+        }
+
+        @Override
+        void eval(double[][] columns, int from, int len, double[] out, int off, BufferPool pool){
+            numerator.eval(columns, from, len, out, off, pool);
+            double[] buffer = pool.take();
+            denominator.eval(columns, from, len, buffer, 0, pool);
+            for(int i = 0; i < len; i++){
+                out[off + i] /= buffer[i];
+            }
+            pool.give(buffer);
+        }
+    }
+
+    static final class TrigNode extends ColumnNode {
+        final Trig func;
+        final ColumnNode arg;
+
+        TrigNode(Trig func, ColumnNode arg){
+            this.func = func;
+            this.arg = arg;
+        }
+
+        @Override
+        void eval(double[][] columns, int from, int len, double[] out, int off, BufferPool pool){
+            arg.eval(columns, from, len, out, off, pool);
+            switch(func){ //the common functions get their own loops, the rest go through Trig.apply
+                case SIN -> {
+                    for(int i = 0; i < len; i++){
+                        out[off + i] = Math.sin(out[off + i]);
+                    }
+                }
+                case COS -> {
+                    for(int i = 0; i < len; i++){
+                        out[off + i] = Math.cos(out[off + i]);
+                    }
+                }
+                case TAN -> {
+                    for(int i = 0; i < len; i++){
+                        out[off + i] = Math.tan(out[off + i]);
+                    }
+                }
+                default -> {
+                    for(int i = 0; i < len; i++){
+                        out[off + i] = func.apply(out[off + i]);
+                    }
+                }
+            }
+        }
+    }
+
+    static final class RowNode extends ColumnNode { //one row at a time through an evaluator, for trees too deep for column nodes
+        final Evaluator evaluator;
+        final int width;
+
+        RowNode(Evaluator evaluator, int width){
+            this.evaluator = evaluator;
+            this.width = width;
+        }
+
+        @Override
+        void eval(double[][] columns, int from, int len, double[] out, int off, BufferPool pool){
+            double[] row = width <= CHUNK ? pool.take() : new double[width];
+            for(int i = 0; i < len; i++){
+                for(int n = 0; n < width; n++){
+                    row[n] = columns[n][from + i];
+                }
+                out[off + i] = evaluator.eval(row);
+            }
+            if(width <= CHUNK){
+                pool.give(row);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+class BracketTable {
+    /*
+    Matches every bracket token of a LatexLexer in one linear pass, so finding a closing bracket is an array read
+    instead of a rescan of the rest of the input like LatexHelper.closeIndex.
+    For an opening bracket, match holds the index of its closing token.
+    For a closing bracket, match holds the closing token of the next group of the same bracket type on the same layer,
+    or -1 if there is none, so the nth closing on a layer can be found by following the links (like \frac{a}{b}).
+    Non-bracket tokens hold -1. Unbalanced or mismatched brackets are reported with their position while building.
+    */
+
+    final int[] match;
+
+    BracketTable(LatexLexer lex){
+        match = new int[lex.count];
+        java.util.Arrays.fill(match, -1);
+
+        int[] open = new int[16]; //stack of unclosed opening tokens
+        int[][] lastClose = new int[17][3]; //last closing token of each bracket type on each layer
+        int layer = 0;
+        for(int i = 0; i < 3; i++){
+            lastClose[0][i] = -1;
+        }
+
+        for(int tok = 0; tok < lex.count; tok++){
+            Token kind = lex.kinds[tok];
+            switch(kind){
+                case OPEN_PAREN, OPEN_SQUARE, OPEN_CURLY -> {
+                    if(layer == open.length){
+                        open = java.util.Arrays.copyOf(open, layer * 2);
+                        lastClose = java.util.Arrays.copyOf(lastClose, layer * 2 + 1);
+                    }
+                    open[layer++] = tok;
+                    if(lastClose[layer] == null){
+                        lastClose[layer] = new int[3];
+                    }
+                    for(int i = 0; i < 3; i++){ //the new group starts with no closed children
+                        lastClose[layer][i] = -1;
+                    }
+                }
+                case CLOSE_PAREN, CLOSE_SQUARE, CLOSE_CURLY -> {
+                    if(layer == 0){
+                        throw new RuntimeException("unmatched " + lex.firstChar(tok) + " at position " + lex.starts[tok]);
+                    }
+                    int opener = open[--layer];
+                    if(closeOf(lex.kinds[opener]) != kind){
+                        throw new RuntimeException(lex.firstChar(tok) + " at position " + lex.starts[tok]
+                            + " does not match " + lex.firstChar(opener) + " at position " + lex.starts[opener]);
+                    }
+                    match[opener] = tok;
+                    int type = typeOf(kind);
+                    if(lastClose[layer][type] != -1){
+                        match[lastClose[layer][type]] = tok;
+                    }
+                    lastClose[layer][type] = tok;
+                }
+                default -> {continue;}
+            }
+        }
+        if(layer != 0){
+            int opener = open[layer-1];
+            throw new RuntimeException("unmatched " + lex.firstChar(opener) + " at position " + lex.starts[opener]);
+        }
+    }
+
+    static Token closeOf(Token open){
+        switch(open){
+            case OPEN_PAREN -> {return Token.CLOSE_PAREN;}
+            case OPEN_SQUARE -> {return Token.CLOSE_SQUARE;}
+            case OPEN_CURLY -> {return Token.CLOSE_CURLY;}
+            default -> {return null;}
+        }
+    }
+
+    static int typeOf(Token close){ //index of the bracket type in lastClose
+        switch(close){
+            case CLOSE_PAREN -> {return 0;}
+            case CLOSE_SQUARE -> {return 1;}
+            default -> {return 2;}
+        }
+    }
+
+    int close(int open){ //closing token of the group opened at the given token
+        return match[open];
+    }
+
+    int close(int open, int num){ //nth closing of the same bracket type on the layer of the given group, or -1
+        int tok = match[open];
+        for(int i = 1; i < num && tok != -1; i++){
+            tok = match[tok];
+        }
+        return tok;
+    }
+}
@@ -0,0 +1,302 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class Derivative {
+    /*
+    Symbolic differentiation with respect to one variable.
+    The input is interned through ExprFactory first, so identical subtrees are one node, and every node's derivative
+    is memoized. Results are built from canonical nodes that point back to the unchanged parts of the input
+    instead of copying them, so a derivative is a DAG sharing most of its nodes with the original.
+    Keeping one Derivative object around for higher order derivatives reuses the memo, which keeps each step
+    linear in the number of distinct nodes instead of the size of the expanded tree.
+    The operands a rule needs are differentiated before the node itself, from an explicit stack instead of
+    recursion, so any depth that fits in the heap works.
+    Rules: sum, product and quotient rules, chain rule through every Trig function, powers with a constant
+    exponent or a constant base, and roots with a constant index. Zero and one terms are dropped while building.
+    Not supported: a power whose base and exponent both depend on the variable (x^{x}) and a root whose index
+    does (\sqrt[x]{2}). Their derivatives need a logarithm of the variable part, and there is no logarithm node to
+    build them from, so both throw an IllegalArgumentException. So does a variable power of a base that isn't
+    positive ((-2)^{x}), which has no real logarithm.
+    */
+
+    private static final Expr ZERO = ExprFactory.intern(Simplifier.number(0));
+    private static final Expr ONE = ExprFactory.intern(Simplifier.number(1));
+    private static final Expr TWO = ExprFactory.intern(Simplifier.number(2));
+    private static final Expr MINUS = ExprFactory.variable("-");
+
+    private final String variable;
+    private final HashMap<Expr, Expr> done = new HashMap<>(); //keyed by canonical nodes, so lookups are identity checks
+
+    public Derivative(String variable){
+        this.variable = variable;
+    }
+
+    public static Expr differentiate(Expr expr, String variable){
+        return new Derivative(variable).of(expr);
+    }
+
+    public Expr of(Expr expr){
+        Expr root = ExprFactory.intern(expr);
+        ArrayList<Expr> stack = new ArrayList<>(); //nodes waiting for the derivatives of their operands
+        stack.add(root);
+        while(!stack.isEmpty()){
+            Expr node = stack.get(stack.size() - 1);
+            if(done.containsKey(node)){
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            int waiting = stack.size();
+            for(Expr operand : operands(node)){
+                if(!done.containsKey(operand)){
+                    stack.add(operand);
+                }
+            }
+            if(stack.size() == waiting){
+                stack.remove(waiting - 1);
+                done.put(node, derive(node));
+            }
+        }
+        return done.get(root);
+    }
+
+    private static List<Expr> operands(Expr expr){ //the children whose derivatives the rule for expr uses
+        if(expr.isConstant() || expr.isMinusSign() || expr instanceof Variable || expr instanceof Integral){
+            return List.of();
+        }
+        else if(expr instanceof Power power){
+            if(power.exponent.isConstant()){
+                return List.of(power.base);
+            }
+            return power.base.isConstant() && !power.isRoot ? List.of(power.exponent) : List.of(); //the rest throw before needing one
+        }
+        ArrayList<Expr> out = new ArrayList<>();
+        for(int i = 0; i < expr.childCount(); i++){
+            out.add(expr.child(i));
+        }
+        return out;
+    }
+
+    private Expr derived(Expr operand){ //the derivative of an operand, which of has always worked out already
+        return done.get(operand);
+    }
+
+    private Expr derive(Expr expr){
+        if(expr.isConstant() || expr.isMinusSign()){
+            return ZERO;
+        }
+        else if(expr instanceof Variable){
+            return expr.name.equals(variable) ? ONE : ZERO;
+        }
+        else if(expr instanceof Sum sum){
+            ArrayList<Expr> terms = new ArrayList<>();
+            for(Expr addend : sum.addends){
+                terms.add(derived(addend));
+            }
+            return add(terms);
+        }
+        else if(expr instanceof Product product){
+            return productRule(product.factors);
+        }
+        else if(expr instanceof Power power){
+            return power.isRoot ? root(power) : power(power);
+        }
+        else if(expr instanceof Fraction fraction){
+            return quotientRule(fraction.numerator, fraction.denominator);
+        }
+        else if(expr instanceof TrigFunc trig){
+            return mul(outerDerivative(trig.func, trig.val), derived(trig.val));
+        }
+        else if(expr instanceof Integral integral){
+            if(integral.respectTo.name.equals("d" + variable)){
+                return integral.arg;
+            }
+            throw new IllegalArgumentException("can't differentiate " + integral.respectTo.name + " integral by " + variable);
+        }
+        throw new RuntimeException("unknown expression type " + expr.getClass().getSimpleName());
+    }
+
+    private Expr productRule(List<Expr> factors){ //sum over each factor of its derivative times the other factors
+        ArrayList<Expr> terms = new ArrayList<>();
+        for(int i = 0; i < factors.size(); i++){
+            Expr derivative = derived(factors.get(i));
+            if(derivative == ZERO){
+                continue;
+            }
+            ArrayList<Expr> term = new ArrayList<>(factors);
+            term.set(i, derivative);
+            terms.add(mul(term));
+        }
+        return add(terms);
+    }
+
+    private Expr power(Power power){
+        Expr base = power.base;
+        Expr exponent = power.exponent;
+        if(exponent.isConstant()){ //n b^{n-1} b'
+            Expr inner = derived(base);
+            if(inner == ZERO){
+                return ZERO;
+            }
+            double n = value(exponent);
+            Expr lower = number(n - 1);
+            Expr reduced = lower == ONE ? base : ExprFactory.power(base, lower);
+            Expr coefficient = exponent instanceof Constant ? exponent : number(n); //an exponent like 1+1 becomes one number
+            return mul(coefficient, reduced, inner);
+        }
+        if(base.isConstant()){ //b^{u} ln(b) u'
+            Expr chain = derived(exponent);
+            if(base instanceof Constant && "e".equals(base.name)){
+                return mul(power, chain);
+            }
+            double b = value(base);
+            if(!(b > 0)){
+                throw new IllegalArgumentException("the base " + b + " has no real logarithm");
+            }
+            return mul(power, number(Math.log(b)), chain);
+        }
+        throw new IllegalArgumentException("powers with a variable base and exponent need a logarithm, which expressions can't represent");
+    }
+
+    private Expr root(Power root){ //the nth root of b has derivative \frac{\sqrt[n]{b}}{n b} b', which reuses the root itself
+        if(!root.exponent.isConstant()){
+            throw new IllegalArgumentException("roots with a variable index need a logarithm, which expressions can't represent");
+        }
+        Expr inner = derived(root.base);
+        if(inner == ZERO){
+            return ZERO;
+        }
+        Expr index = number(value(root.exponent));
+        return mul(ExprFactory.fraction(root, mul(index, root.base)), inner);
+    }
+
+    private Expr quotientRule(Expr numerator, Expr denominator){ //\frac{n' d - n d'}{d^{2}}
+        Expr top = derived(numerator);
+        Expr bottom = derived(denominator);
+        if(bottom == ZERO){
+            return top == ZERO ? ZERO : ExprFactory.fraction(top, denominator);
+        }
+        Expr squared = ExprFactory.power(denominator, TWO);
+        if(top == ZERO){
+            return negate(ExprFactory.fraction(mul(numerator, bottom), squared));
+        }
+        return ExprFactory.fraction(add(List.of(mul(top, denominator), negate(mul(numerator, bottom)))), squared);
+    }
+
+    private static Expr outerDerivative(Trig func, Expr u){ //derivative of the function itself, evaluated at u
+        switch(func){
+            case SIN -> {return ExprFactory.trig(Trig.COS, u);}
+            case COS -> {return negate(ExprFactory.trig(Trig.SIN, u));}
+            case TAN -> {return ExprFactory.power(ExprFactory.trig(Trig.SEC, u), TWO);}
+            case ASIN -> {return ExprFactory.fraction(ONE, ExprFactory.root(oneMinusSquare(u), TWO));}
+            case ACOS -> {return negate(ExprFactory.fraction(ONE, ExprFactory.root(oneMinusSquare(u), TWO)));}
+            case ATAN -> {return ExprFactory.fraction(ONE, ExprFactory.sum(ONE, ExprFactory.power(u, TWO)));}
+            case SEC -> {return ExprFactory.product(ExprFactory.trig(Trig.SEC, u), ExprFactory.trig(Trig.TAN, u));}
+            case CSC -> {return negate(ExprFactory.product(ExprFactory.trig(Trig.CSC, u), ExprFactory.trig(Trig.COT, u)));}
+            default -> {return negate(ExprFactory.power(ExprFactory.trig(Trig.CSC, u), TWO));}
+        }
+    }
+
+    private static Expr oneMinusSquare(Expr u){ //1-u^{2}
+        return ExprFactory.sum(ONE, negate(ExprFactory.power(u, TWO)));
+    }
+
+    private static Expr number(double value){ //negative numbers get a leading "-" factor, the way the parser reads them back
+        Expr magnitude = ExprFactory.intern(Simplifier.number(Math.abs(value)));
+        return value < 0 ? negate(magnitude) : magnitude;
+    }
+
+    private static double value(Expr constant){
+        return ExprCompiler.compile(constant, new String[0]).eval(new double[0]);
+    }
+
+    private static Expr add(List<Expr> terms){ //sum without zero terms
+        ArrayList<Expr> kept = new ArrayList<>();
+        for(Expr term : terms){
+            if(term != ZERO){
+                kept.add(term);
+            }
+        }
+        switch(kept.size()){
+            case 0 -> {return ZERO;}
+            case 1 -> {return kept.get(0);}
+            default -> {return ExprFactory.sum(kept);}
+        }
+    }
+
+    private static Expr mul(Expr... factors){
+        return mul(List.of(factors));
+    }
+
+    private static Expr mul(List<Expr> factors){ //flat product without one factors, zero if any factor is zero
+        ArrayList<Expr> kept = new ArrayList<>();
+        ArrayList<Expr> named = new ArrayList<>(); //constants written as a command, like \pi, go last so no letter runs into their name
+        ArrayList<Expr> numbers = new ArrayList<>(); //folded into one coefficient, two numbers next to each other would run together
+        boolean negative = false;
+        boolean numericBase = false; //a power of a number starts with digits, so the coefficient goes after the factors
+        for(Expr factor : factors){
+            if(factor == ZERO){
+                return ZERO;
+            }
+            List<Expr> parts = factor instanceof Product inner ? inner.factors : List.of(factor);
+            for(Expr part : parts){
+                if(part == MINUS){ //minus signs are moved to the front so the product doesn't print as a difference
+                    negative = !negative;
+                } else if(part == ONE){
+                    continue;
+                } else if(isDigits(part)){
+                    if(((Constant) part).writtenNegative()){ //so is the sign of a negative number
+                        negative = !negative;
+                        numbers.add(number(-part.num));
+                    } else {
+                        numbers.add(part);
+                    }
+                } else if(part instanceof Constant && part.name != null && part.name.startsWith("\\")){
+                    named.add(part);
+                } else {
+                    numericBase |= part instanceof Power power && !power.isRoot && isDigits(power.base);
+                    kept.add(part);
+                }
+            }
+        }
+        Expr coefficient = numbers.size() == 1 ? numbers.get(0) : ONE;
+        if(numbers.size() > 1){
+            double value = 1;
+            for(Expr number : numbers){
+                value *= number.num;
+            }
+            coefficient = number(value);
+        }
+        if(coefficient != ONE){
+            kept.add(numericBase ? kept.size() : 0, coefficient);
+        }
+        kept.addAll(named);
+        if(negative){
+            kept.add(0, MINUS);
+        }
+        switch(kept.size()){
+            case 0 -> {return ONE;}
+            case 1 -> {return kept.get(0);}
+            default -> {return ExprFactory.product(kept);}
+        }
+    }
+
+    private static boolean isDigits(Expr expr){ //a number written with digits, not a named constant like \pi or e
+        return expr instanceof Constant && expr.num != null && (expr.name == null || !expr.name.startsWith("\\") && !expr.name.equals("e"));
+    }
+
+    private static Expr negate(Expr expr){ //written with a leading "-" factor like the parser does, two minus signs cancel
+        if(expr instanceof Product product && product.factors.get(0) == MINUS){
+            List<Expr> rest = product.factors.subList(1, product.factors.size());
+            return rest.size() == 1 ? rest.get(0) : ExprFactory.product(rest);
+        }
+        ArrayList<Expr> factors = new ArrayList<>();
+        factors.add(MINUS);
+        if(expr instanceof Product product){
+            factors.addAll(product.factors);
+        } else {
+            factors.add(expr);
+        }
+        return ExprFactory.product(factors);
+    }
+}
@@ -1,28 +1,139 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Scanner;
 
 public abstract class Expr {
-    abstract String toLatex();
+    /*
+    Expressions are immutable: Sums and Products copy their terms into unmodifiable lists, and every field is final
+    except interned, a flag that ExprFactory sets once and that only lets equals give up early.
+    Each node computes its structural hash once when it is constructed (its children already have theirs),
+    and equals compares structure, so expressions can be used as map keys.
+    ExprFactory shares identical subtrees, and two nodes from ExprFactory are equal only if they are the same object.
+    equals keeps an explicit stack of node pairs and the latex is written by LatexWriter, which only recurses a bounded
+    number of levels, so expressions can be nested as deep as the heap allows.
+    */
+    abstract void writeParts(LatexWriter out) throws IOException; //lists the node's text and children in output order, LatexWriter writes the children
     abstract boolean isConstant();
+    abstract boolean sameAs(Expr other); //compares the node's own fields with a node of the same class, children are compared by equals
+    abstract int childCount();
+    abstract Expr child(int i);
 
-    public String name = null;
-    Expr val = null;
-    Double num = null;
+    Expr(String name, Expr val, Double num, int hash){
+        this.name = name;
+        this.val = val;
+        this.num = num;
+        this.hash = hash;
+    }
+
+    final void writeLatex(Appendable out) throws IOException { //streams the latex straight into out without building intermediate strings
+        LatexWriter.write(this, out);
+    }
+
+    public String toLatex(){
+        ParseMetrics metrics = Instrumentation.metrics;
+        Object begun = metrics == null ? null : metrics.beginEmit();
+        long start = metrics == null ? 0 : System.nanoTime();
+        StringBuilder out = new StringBuilder();
+        try {
+            writeLatex(out);
+        } catch(IOException e){ //StringBuilder never throws, this only satisfies the Appendable signature
+            throw new UncheckedIOException(e);
+        }
+        if(metrics != null){
+            long nanos = System.nanoTime() - start;
+            metrics.end(begun);
+            metrics.emitted(out.length(), nanos, begun);
+        }
+        return out.toString();
+    }
+
+    public final String name;
+    final Expr val;
+    final Double num;
+    final int hash; //structural hash, worked out by each subclass from its own fields and its children's hashes
+    boolean interned = false; //set by ExprFactory on canonical nodes, a thread that doesn't see it yet just compares structure
+
+    @Override
+    public final int hashCode(){
+        return hash;
+    }
+
+    @Override
+    public final boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof Expr other) || !sameNode(other)){
+            return false;
+        }
+        ArrayList<Expr> pending = null; //pairs of children still to compare, allocated only once a pair isn't the same object
+        Expr a = this, b = other;
+        while(true){
+            for(int i = 0; i < a.childCount(); i++){
+                Expr x = a.child(i), y = b.child(i);
+                if(x == y){
+                    continue;
+                }
+                if(!x.sameNode(y)){
+                    return false;
+                }
+                if(pending == null){
+                    pending = new ArrayList<>();
+                }
+                pending.add(x);
+                pending.add(y);
+            }
+            if(pending == null || pending.isEmpty()){
+                return true;
+            }
+            b = pending.remove(pending.size() - 1);
+            a = pending.remove(pending.size() - 1);
+        }
+    }
+
+    private boolean sameNode(Expr other){ //everything but the children
+        if(other.hash != hash || other.getClass() != getClass()){
+            return false;
+        }
+        if(interned && other.interned){ //there is only one canonical node per structure
+            return false;
+        }
+        return sameAs(other);
+    }
+
+    boolean isMinusSign(){ //the parser stores a leading "-" as a variable factor named "-"
+        return this instanceof Variable && "-".equals(name);
+    }
 }
 
 class Constant extends Expr {
-    private boolean isChar;
+    private final boolean isChar;
 
     public Constant(double value){ //initalizes constant with its value
-        this.num = value;
+        super(null, null, value, Double.hashCode(value));
         this.isChar = false;
     }
+    public Constant(double value, String text){ //constructs a number that keeps the way it was written in the input
+        super(text, null, value, 31 * Double.hashCode(value) + text.hashCode());
+        this.isChar = true;
+    }
     public Constant(String name){ //constructs a constant represented by a character
+        super(name, null, valueOf(name), 31 * Objects.hashCode(valueOf(name)) + name.hashCode());
         this.isChar = true;
-        this.name = name;
+    }
+
+    boolean writtenNegative(){ //starts with a minus sign when written, so it has to be bracketed as a power's base
+        return isChar ? name.startsWith("-") : Math.copySign(1.0, num) < 0;
+    }
+
+    private static Double valueOf(String name){ //values of the constants that have names
         switch(name){
-            case "\\pi" -> this.num = 3.14159;
-            case "e" -> this.num = 2.71828;
+            case "\\pi" -> {return 3.14159;}
+            case "e" -> {return 2.71828;}
+            default -> {return null;}
         }
     }
 
@@ -32,51 +143,85 @@ class Constant extends Expr {
     }
 
     @Override
-    public String toLatex(){
+    void writeParts(LatexWriter out) throws IOException {
         if(isChar){
-            return name;
+            out.text(name);
         } else {
-            return "" + num;
+            out.text(String.valueOf(num));
         }
     }
+
+    @Override
+    boolean sameAs(Expr other){
+        return isChar == ((Constant) other).isChar && Objects.equals(num, other.num) && Objects.equals(name, other.name);
+    }
+
+    @Override
+    int childCount(){
+        return 0;
+    }
+
+    @Override
+    Expr child(int i){
+        throw new IndexOutOfBoundsException(i);
+    }
 }
 
 class Product extends Expr {
-    public ArrayList<Expr> factors;
-
-    public Product(ArrayList<Expr> factors){ //initializes product object with array of factor expressions
-        this.factors = factors;
+    public final List<Expr> factors;
+    private final boolean constant;
+
+    public Product(List<Expr> factors){ //initializes product object with array of factor expressions
+        super(null, null, null, 2 * 31 + factors.hashCode()); //a list's hash only depends on its elements, so the copy has the same one
+        this.factors = List.copyOf(factors);
+        boolean constant = true;
+        for(Expr factor : this.factors){ //minus signs don't stop a product from being constant
+            constant &= factor.isConstant() || factor.isMinusSign();
+        }
+        this.constant = constant;
     }
     public Product(Constant c, Expr ex){ //for easy creation of an expression multiplied by a constant
-        this.factors = new ArrayList<>();
-        factors.add(c);
-        factors.add(ex);
+        this(List.of(c, ex));
     }
 
     @Override
-    public boolean isConstant(){ //Checks to see if all factors are constants
-        for(Expr factor : factors){
-            if(factor instanceof Constant == false){
-                return false;
-            }
-        }
-        return true;
+    public boolean isConstant(){ //all factors are constant, worked out once in the constructor
+        return constant;
     }
 
     @Override
-    public String toLatex(){
-        String out = "";
+    void writeParts(LatexWriter out) throws IOException {
         for (Expr factor : factors){
-            out += factor.toLatex();
+            if(factor instanceof Sum){ //a sum has to be bracketed to stay one factor
+                out.text('(');
+                out.child(factor);
+                out.text(')');
+            } else {
+                out.child(factor);
+            }
         }
-        return out;
     } 
+
+    @Override
+    boolean sameAs(Expr other){
+        return factors.size() == ((Product) other).factors.size();
+    }
+
+    @Override
+    int childCount(){
+        return factors.size();
+    }
+
+    @Override
+    Expr child(int i){
+        return factors.get(i);
+    }
 }
 
 class Variable extends Expr {
 
     public Variable(String name){ //initializes variable with its name
-        this.name = name;
+        super(name, null, null, 3 * 31 + name.hashCode());
     }
 
     @Override
@@ -85,130 +230,237 @@ class Variable extends Expr {
     }
 
     @Override
-    public String toLatex(){
-        return name;
+    void writeParts(LatexWriter out) throws IOException {
+        out.text(name);
+    }
+
+    @Override
+    boolean sameAs(Expr other){
+        return name.equals(other.name);
+    }
+
+    @Override
+    int childCount(){
+        return 0;
+    }
+
+    @Override
+    Expr child(int i){
+        throw new IndexOutOfBoundsException(i);
     }
 }
 
 class Power extends Expr {
-    public Expr base;
-    public Expr exponent;
-    public boolean isRoot;
+    public final Expr base;
+    public final Expr exponent;
+    public final boolean isRoot;
+    private final boolean constant;
 
     public Power(Expr base, Expr exponent){ //initializes power with base expression and exponent expression
-        this.base = base;
-        this.exponent = exponent;
-        this.isRoot = false;
+        this(base, exponent, false);
     }
 
     public Power(Expr base, Expr root, boolean isRoot){
+        super(null, null, null, ((4 * 31 + base.hash) * 31 + root.hash) * 31 + (isRoot ? 1 : 0));
         this.base = base;
         this.exponent = root;
         this.isRoot = isRoot;
+        this.constant = base.isConstant() && root.isConstant();
     }
 
     @Override
     public boolean isConstant(){ // power is a constant if both base and exponents are constants
-        return (base instanceof Constant && exponent instanceof Constant);
+        return constant;
     }
 
     @Override
-    public String toLatex(){
+    void writeParts(LatexWriter out) throws IOException {
         if(!isRoot){
             if(base instanceof TrigFunc){
-                return (base.name + "^{" + exponent.toLatex() + "}(" + base.val.toLatex() + ")");
+                out.text(base.name);
+                out.text("^{");
+                out.child(exponent);
+                out.text("}(");
+                out.child(base.val);
+                out.text(')');
             }
-            else if(base instanceof Constant || base instanceof Variable){
-                return (base.toLatex() + "^{" + exponent.toLatex() + "}");
+            else if(base instanceof Constant c && !c.writtenNegative() || base instanceof Variable){
+                out.child(base);
+                out.text("^{");
+                out.child(exponent);
+                out.text('}');
             }
             else {
-                return ("(" + base.toLatex() + ")^{" + exponent.toLatex() + "}");
+                out.text('(');
+                out.child(base);
+                out.text(")^{");
+                out.child(exponent);
+                out.text('}');
             }
         }
         else {
             if(exponent instanceof Constant && exponent.num == 2.0){
-                return ("\\sqrt{" + base.toLatex() + "}");
+                out.text("\\sqrt{");
+                out.child(base);
+                out.text('}');
             } else {
-                return ("\\sqrt[" + exponent.toLatex() + "]{" + base.toLatex() + "}");
+                out.text("\\sqrt[");
+                out.child(exponent);
+                out.text("]{");
+                out.child(base);
+                out.text('}');
             }
         }
         
     }
-}
 
-class Sum extends Expr {
-    public ArrayList<Expr> addends;
+    @Override
+    boolean sameAs(Expr other){
+        return isRoot == ((Power) other).isRoot;
+    }
 
-    public Sum(ArrayList<Expr> addends){ //initializes sum with array of addend expressions
-        this.addends = addends;
-        this.name = null;
+    @Override
+    int childCount(){
+        return 2;
     }
 
     @Override
-    public boolean isConstant(){ //sum is constant if all addends are constants
-        for(Expr addend : addends){
-            if(addend instanceof Constant == false){
-                return false;
-            }
+    Expr child(int i){
+        return i == 0 ? base : exponent;
+    }
+}
+
+class Sum extends Expr {
+    public final List<Expr> addends;
+    private final boolean constant;
+
+    public Sum(List<Expr> addends){ //initializes sum with array of addend expressions
+        super(null, null, null, 5 * 31 + addends.hashCode());
+        this.addends = List.copyOf(addends);
+        boolean constant = true;
+        for(Expr addend : this.addends){
+            constant &= addend.isConstant();
         }
-        return true;
+        this.constant = constant;
     }
 
     @Override
-    public String toLatex(){
-        String out = addends.get(0).toLatex();
+    public boolean isConstant(){ //sum is constant if all addends are constants, worked out once in the constructor
+        return constant;
+    }
+
+    @Override
+    void writeParts(LatexWriter out) throws IOException {
+        out.child(addends.get(0));
         for(int i = 1; i < addends.size(); i++){
-            out += ("+" + addends.get(i).toLatex());
+            out.text('+');
+            out.child(addends.get(i));
         }
-        return out;
+    }
+
+    @Override
+    boolean sameAs(Expr other){
+        return addends.size() == ((Sum) other).addends.size();
+    }
+
+    @Override
+    int childCount(){
+        return addends.size();
+    }
+
+    @Override
+    Expr child(int i){
+        return addends.get(i);
     }
 }
 
 class TrigFunc extends Expr {
-    public Trig func;
+    public final Trig func;
+    private final boolean constant;
 
     public TrigFunc(Trig func, Expr arg){ //initializes trig function with function type and argument
+        super(func.name, arg, null, (6 * 31 + func.ordinal()) * 31 + arg.hash);
         this.func = func;
-        this.val = arg;
-        this.name = func.name;
+        this.constant = arg.isConstant();
     }
 
     @Override
-    public boolean isConstant(){ // trig function is a constant if the argument is a constant
-        return (val instanceof Constant);
+    public boolean isConstant(){ // trig function is a constant if the argument is a constant, worked out once in the constructor
+        return constant;
     }
 
     @Override
-    public String toLatex(){
-        return (name + "(" + val.toLatex() + ")");
+    void writeParts(LatexWriter out) throws IOException {
+        out.text(name);
+        out.text('(');
+        out.child(val);
+        out.text(')');
+    }
+
+    @Override
+    boolean sameAs(Expr other){
+        return func == ((TrigFunc) other).func;
+    }
+
+    @Override
+    int childCount(){
+        return 1;
+    }
+
+    @Override
+    Expr child(int i){
+        return val;
     }
 }
 
 class Fraction extends Expr {
-    public Expr numerator;
-    public Expr denominator;
+    public final Expr numerator;
+    public final Expr denominator;
+    private final boolean constant;
 
     public Fraction(Expr numerator, Expr denominator){ //initializes fraction with numerator and denominator expressions
+        super(null, null, null, (7 * 31 + numerator.hash) * 31 + denominator.hash);
         this.numerator = numerator;
         this.denominator = denominator;
+        this.constant = numerator.isConstant() && denominator.isConstant();
     }
 
     @Override
     public boolean isConstant(){
-        return (numerator instanceof Constant && denominator instanceof Constant); //fraction is constant if both numerator and denominator are constants
+        return constant; //fraction is constant if both numerator and denominator are constants, worked out once in the constructor
     }
 
     @Override
-    public String toLatex(){
-        return ("\\frac{" + numerator.toLatex() + "}{" + denominator.toLatex() + "}");
+    void writeParts(LatexWriter out) throws IOException {
+        out.text("\\frac{");
+        out.child(numerator);
+        out.text("}{");
+        out.child(denominator);
+        out.text('}');
+    }
+
+    @Override
+    boolean sameAs(Expr other){ //fractions have nothing but their children
+        return true;
+    }
+
+    @Override
+    int childCount(){
+        return 2;
+    }
+
+    @Override
+    Expr child(int i){
+        return i == 0 ? numerator : denominator;
     }
 }
 
 class Integral extends Expr {
-    public Variable respectTo;
-    public Expr arg;
+    public final Variable respectTo;
+    public final Expr arg;
 
     public Integral(Expr arg, Variable respectTo){
+        super(null, null, null, (8 * 31 + arg.hash) * 31 + respectTo.hash);
         this.respectTo = respectTo;
         this.arg = arg;
     }
@@ -219,8 +471,26 @@ class Integral extends Expr {
     }
 
     @Override
-    public String toLatex(){
-        return ("\\int(" + arg.toLatex() + ")" + respectTo.toLatex());
+    void writeParts(LatexWriter out) throws IOException {
+        out.text("\\int(");
+        out.child(arg);
+        out.text(')');
+        out.child(respectTo);
+    }
+
+    @Override
+    boolean sameAs(Expr other){ //the variable is a child
+        return true;
+    }
+
+    @Override
+    int childCount(){
+        return 2;
+    }
+
+    @Override
+    Expr child(int i){
+        return i == 0 ? arg : respectTo;
     }
 }
 
@@ -235,15 +505,45 @@ enum Trig { //enum with trig functions and stuff
     CSC("\\csc"),
     COT("\\cot");
 
-    public String name;
+    public final String name;
 
     private Trig(String name){
         this.name = name;
     }
+
+    double apply(double x){ //evaluates the function at x (radians)
+        switch(this){
+            case SIN -> {return Math.sin(x);}
+            case COS -> {return Math.cos(x);}
+            case TAN -> {return Math.tan(x);}
+            case ASIN -> {return Math.asin(x);}
+            case ACOS -> {return Math.acos(x);}
+            case ATAN -> {return Math.atan(x);}
+            case SEC -> {return 1.0 / Math.cos(x);}
+            case CSC -> {return 1.0 / Math.sin(x);}
+            default -> {return 1.0 / Math.tan(x);}
+        }
+    }
 }
 
 class Main {
-    public static void main(String[] args){
+    public static void main(String[] args) throws IOException {
+        if(args.length > 0 && args[0].equals("--batch")){ //batch mode: one expression per line from a file or stdin
+            RoundTripBatch.run(args.length > 1 ? args[1] : null);
+            return;
+        }
+        if(args.length > 1 && args[0].equals("--scan")){ //parses every math segment of a .tex file
+            MathScanner.run(args[1]);
+            return;
+        }
+        if(args.length > 2 && args[0].equals("--pack")){ //parses one expression per line into the binary format of ExprCodec
+            ExprCodec.pack(args[1], args[2]);
+            return;
+        }
+        if(args.length > 1 && args[0].equals("--unpack")){ //prints the expressions of an ExprCodec file as latex
+            ExprCodec.unpack(args[1]);
+            return;
+        }
         
         Scanner s = new Scanner(System.in);
         System.out.print("enter latex expression: ");
@@ -0,0 +1,461 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class ExprCodec {
+    /*
+    Binary format for storing parsed expressions, so a corpus can be loaded again without parsing any latex.
+    A stream starts with MAGIC and VERSION and then holds any number of expressions. Each expression is its nodes in
+    post-order, so a reader builds it with a stack of finished nodes, and is closed by an END tag.
+    Every record starts with a varint holding its tag in the low TAG_BITS bits and its first operand above them
+    (a pool index, a child count, a Trig ordinal, a node number or a length, 0 if it has none), so most leaves and
+    small nodes take a single byte. Strings (variable names, constant texts, differentials) and doubles are
+    pooled for the whole stream: the first use of one is preceded by a STRING or DOUBLE record that adds it to the pool
+    (strings as their length in the record and then UTF-8, doubles as 8 raw little endian bytes), later uses only write its index.
+    A node that is the same object as one written earlier in the expression (like the shared nodes of ExprFactory or
+    Derivative) is written as a REF to that node's number, so DAGs stay DAGs and don't grow when written.
+    Trig functions are stored by ordinal, so reordering Trig or changing any record needs a new VERSION.
+    Writer and Reader go through one buffer over an NIO channel, and neither recurses, so depth is only limited by heap.
+    */
+
+    static final int MAGIC = 0x5250584c; //"LXPR" when read as little endian bytes
+    static final int VERSION = 1;
+    static final int BUFFER_SIZE = 1 << 16;
+    static final int TAG_BITS = 4;
+
+    //record tags
+    static final int END = 0;          //end of an expression
+    static final int STRING = 1;       //adds a string to the pool
+    static final int DOUBLE = 2;       //adds a double to the pool
+    static final int NUMBER = 3;       //double index, Constant printed from its value
+    static final int NUMBER_TEXT = 4;  //double index, then string index, Constant with the text it was written as
+    static final int SYMBOL = 5;       //string index, Constant without a value
+    static final int VARIABLE = 6;     //string index
+    static final int SUM = 7;          //addend count
+    static final int PRODUCT = 8;      //factor count
+    static final int POWER = 9;        //base and exponent
+    static final int ROOT = 10;        //base and index
+    static final int FRACTION = 11;    //numerator and denominator
+    static final int TRIG = 12;        //Trig ordinal, argument
+    static final int INTEGRAL = 13;    //argument and differential variable
+    static final int REF = 14;         //number of a node written earlier in the same expression
+
+    private static final Trig[] TRIGS = Trig.values();
+
+    public static void writeAll(Path file, List<Expr> exprs) throws IOException {
+        try(Writer out = new Writer(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))){
+            for(Expr expr : exprs){
+                out.write(expr);
+            }
+        }
+    }
+
+    public static ArrayList<Expr> readAll(Path file) throws IOException {
+        ArrayList<Expr> out = new ArrayList<>();
+        try(Reader in = new Reader(FileChannel.open(file, StandardOpenOption.READ))){
+            Expr expr;
+            while((expr = in.read()) != null){
+                out.add(expr);
+            }
+        }
+        return out;
+    }
+
+    public static void pack(String latexFile, String out) throws IOException { //parses one expression per line and writes them all to out
+        try(BufferedReader in = Files.newBufferedReader(Path.of(latexFile), StandardCharsets.UTF_8);
+            Writer writer = new Writer(FileChannel.open(Path.of(out), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))){
+            String line;
+            long lineNumber = 0;
+            while((line = in.readLine()) != null){
+                lineNumber++;
+                try {
+                    writer.write(LatexHelper.toExpr(line));
+                } catch(RuntimeException e){
+                    throw new IOException("line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    public static void unpack(String file) throws IOException { //prints the latex of every expression in the file, one per line
+        java.io.Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        try(Reader in = new Reader(FileChannel.open(Path.of(file), StandardOpenOption.READ))){
+            Expr expr;
+            while((expr = in.read()) != null){
+                expr.writeLatex(out);
+                out.append('\n');
+            }
+        }
+        out.flush();
+    }
+
+    public static final class Writer implements Closeable {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final HashMap<String, Integer> strings = new HashMap<>();
+        private final HashMap<Long, Integer> doubles = new HashMap<>(); //by raw bits, so -0.0 and NaNs keep their bits
+        private final IdentityHashMap<Expr, Integer> written = new IdentityHashMap<>(); //node numbers of the current expression
+        private int nodes; //nodes written for the current expression
+
+        public Writer(WritableByteChannel channel) throws IOException {
+            this.channel = channel;
+            buf.putInt(MAGIC);
+            varint(VERSION);
+        }
+
+        public void write(Expr root) throws IOException { //appends one expression, walking it in post-order without recursion
+            written.clear();
+            nodes = 0;
+            Expr[] path = new Expr[16]; //inner nodes whose children are being written
+            int[] next = new int[16]; //index of the next child to write for each of them
+            int depth = 0;
+            Expr expr = root;
+            while(true){
+                boolean done = true;
+                Integer seen = written.get(expr);
+                if(seen != null){
+                    record(REF, seen);
+                }
+                else if(expr instanceof Constant || expr instanceof Variable){
+                    leaf(expr);
+                }
+                else {
+                    if(depth == path.length){
+                        path = Arrays.copyOf(path, depth * 2);
+                        next = Arrays.copyOf(next, depth * 2);
+                    }
+                    path[depth] = expr;
+                    next[depth++] = 0;
+                    done = false;
+                }
+                while(true){ //finishes parents until one has a child left to write
+                    if(done && depth == 0){
+                        record(END, 0);
+                        return;
+                    }
+                    Expr parent = path[depth-1];
+                    int i = next[depth-1];
+                    if(i < parent.childCount()){
+                        next[depth-1] = i + 1;
+                        expr = parent.child(i);
+                        break;
+                    }
+                    path[--depth] = null;
+                    inner(parent);
+                    done = true;
+                }
+            }
+        }
+
+        private void leaf(Expr expr) throws IOException {
+            if(expr instanceof Variable){
+                record(VARIABLE, string(expr.name));
+            }
+            else if(expr.num == null){
+                record(SYMBOL, string(expr.name));
+            }
+            else if(expr.name == null){
+                record(NUMBER, number(expr.num));
+            }
+            else {
+                int value = number(expr.num);
+                int text = string(expr.name);
+                record(NUMBER_TEXT, value);
+                varint(text);
+            }
+            written.put(expr, nodes++);
+        }
+
+        private void inner(Expr expr) throws IOException {
+            if(expr instanceof Sum sum){
+                record(SUM, sum.addends.size());
+            }
+            else if(expr instanceof Product product){
+                record(PRODUCT, product.factors.size());
+            }
+            else if(expr instanceof Power power){
+                record(power.isRoot ? ROOT : POWER, 0);
+            }
+            else if(expr instanceof Fraction){
+                record(FRACTION, 0);
+            }
+            else if(expr instanceof TrigFunc trig){
+                record(TRIG, trig.func.ordinal());
+            }
+            else if(expr instanceof Integral){
+                record(INTEGRAL, 0);
+            }
+            else {
+                throw new IllegalArgumentException("unknown expression type " + expr.getClass().getSimpleName());
+            }
+            written.put(expr, nodes++);
+        }
+
+        private int string(String s) throws IOException { //pool index, defining the string first if it is new
+            Integer index = strings.get(s);
+            if(index == null){
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                record(STRING, bytes.length);
+                int from = 0;
+                while(from < bytes.length){ //names can be longer than the buffer
+                    int n = Math.min(bytes.length - from, room(1));
+                    buf.put(bytes, from, n);
+                    from += n;
+                }
+                index = strings.size();
+                strings.put(s, index);
+            }
+            return index;
+        }
+
+        private int number(double value) throws IOException {
+            long bits = Double.doubleToRawLongBits(value);
+            Integer index = doubles.get(bits);
+            if(index == null){
+                record(DOUBLE, 0);
+                room(8);
+                buf.putLong(bits);
+                index = doubles.size();
+                doubles.put(bits, index);
+            }
+            return index;
+        }
+
+        private void record(int tag, int operand) throws IOException {
+            varint((long) operand << TAG_BITS | tag);
+        }
+
+        private void varint(long value) throws IOException { //unsigned LEB128: 7 bits per byte, high bit set on all but the last
+            room(10);
+            while((value & ~0x7fL) != 0){
+                buf.put((byte) (value | 0x80));
+                value >>>= 7;
+            }
+            buf.put((byte) value);
+        }
+
+        private int room(int bytes) throws IOException { //makes space for at least that many bytes and returns the space left
+            if(buf.remaining() < bytes){
+                flush();
+            }
+            return buf.remaining();
+        }
+
+        public void flush() throws IOException {
+            buf.flip();
+            while(buf.hasRemaining()){
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    public static final class Reader implements Closeable {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private boolean eof = false;
+        private final ArrayList<String> strings = new ArrayList<>();
+        private double[] doubles = new double[64];
+        private int doubleCount = 0;
+        private final ArrayList<Expr> nodes = new ArrayList<>(); //every node of the current expression, for REF
+        private final ArrayList<Expr> stack = new ArrayList<>(); //finished nodes waiting for their parent
+
+        public Reader(ReadableByteChannel channel) throws IOException {
+            this.channel = channel;
+            buf.flip(); //starts empty
+            if(!fill(4) || buf.getInt() != MAGIC){
+                throw new IOException("not an expression stream");
+            }
+            int version = operand(varint());
+            if(version != VERSION){
+                throw new IOException("unsupported expression stream version " + version + ", expected " + VERSION);
+            }
+        }
+
+        public Expr read() throws IOException { //the next expression, or null at the end of the stream
+            if(!fill(1)){
+                return null;
+            }
+            nodes.clear();
+            stack.clear();
+            while(true){
+                long header = varint();
+                int tag = (int) header & ((1 << TAG_BITS) - 1);
+                int operand = operand(header >>> TAG_BITS);
+                switch(tag){
+                    case END -> {
+                        if(stack.size() != 1){
+                            throw corrupt("expression ends with " + stack.size() + " nodes");
+                        }
+                        return stack.remove(0);
+                    }
+                    case STRING -> {
+                        int length = operand;
+                        byte[] bytes = new byte[length];
+                        int from = 0;
+                        while(from < length){
+                            if(!fill(1)){
+                                throw corrupt("string cut off");
+                            }
+                            int n = Math.min(length - from, buf.remaining());
+                            buf.get(bytes, from, n);
+                            from += n;
+                        }
+                        strings.add(new String(bytes, StandardCharsets.UTF_8));
+                    }
+                    case DOUBLE -> {
+                        if(!fill(8)){
+                            throw corrupt("double cut off");
+                        }
+                        if(doubleCount == doubles.length){
+                            doubles = Arrays.copyOf(doubles, doubleCount * 2);
+                        }
+                        doubles[doubleCount++] = buf.getDouble();
+                    }
+                    case NUMBER -> node(new Constant(number(operand)));
+                    case NUMBER_TEXT -> {
+                        double value = number(operand);
+                        node(new Constant(value, string(operand(varint()))));
+                    }
+                    case SYMBOL -> node(new Constant(string(operand)));
+                    case VARIABLE -> node(new Variable(string(operand)));
+                    case SUM -> node(new Sum(pop(operand)));
+                    case PRODUCT -> node(new Product(pop(operand)));
+                    case POWER, ROOT, FRACTION, INTEGRAL -> {
+                        List<Expr> two = pop(2);
+                        Expr a = two.get(0), b = two.get(1);
+                        if(tag == POWER){
+                            node(new Power(a, b));
+                        }
+                        else if(tag == ROOT){
+                            node(new Power(a, b, true));
+                        }
+                        else if(tag == FRACTION){
+                            node(new Fraction(a, b));
+                        }
+                        else if(b instanceof Variable respectTo){
+                            node(new Integral(a, respectTo));
+                        }
+                        else {
+                            throw corrupt("integral without a differential variable");
+                        }
+                    }
+                    case TRIG -> {
+                        int func = operand;
+                        if(func >= TRIGS.length){
+                            throw corrupt("unknown trig function " + func);
+                        }
+                        node(new TrigFunc(TRIGS[func], pop(1).get(0)));
+                    }
+                    case REF -> {
+                        int index = operand;
+                        if(index >= nodes.size()){
+                            throw corrupt("reference to node " + index + " of " + nodes.size());
+                        }
+                        stack.add(nodes.get(index));
+                    }
+                    default -> throw corrupt("unknown tag " + tag);
+                }
+            }
+        }
+
+        private void node(Expr expr){
+            nodes.add(expr);
+            stack.add(expr);
+        }
+
+        private List<Expr> pop(int count) throws IOException { //the newest count nodes, oldest first, taken off the stack
+            if(count < 0 || count > stack.size()){
+                throw corrupt("node needs " + count + " children but has " + stack.size());
+            }
+            List<Expr> top = stack.subList(stack.size() - count, stack.size());
+            List<Expr> out = List.copyOf(top);
+            top.clear();
+            return out;
+        }
+
+        private String string(int index) throws IOException {
+            if(index >= strings.size()){
+                throw corrupt("string " + index + " not defined");
+            }
+            return strings.get(index);
+        }
+
+        private double number(int index) throws IOException {
+            if(index >= doubleCount){
+                throw corrupt("double " + index + " not defined");
+            }
+            return doubles[index];
+        }
+
+        private long varint() throws IOException {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7){
+                if(!fill(1)){
+                    throw corrupt("stream cut off");
+                }
+                byte b = buf.get();
+                value |= (long) (b & 0x7f) << shift;
+                if(b >= 0){
+                    return value;
+                }
+            }
+            throw corrupt("varint longer than 10 bytes");
+        }
+
+        private int operand(long value) throws IOException {
+            if(value > Integer.MAX_VALUE){
+                throw corrupt("operand " + value + " out of range");
+            }
+            return (int) value;
+        }
+
+        private boolean fill(int bytes) throws IOException { //reads until that many bytes are buffered, false if the stream ends first
+            if(buf.remaining() >= bytes){
+                return true;
+            }
+            buf.compact();
+            while(buf.position() < bytes && !eof){
+                if(channel.read(buf) == -1){
+                    eof = true;
+                }
+            }
+            buf.flip();
+            return buf.remaining() >= bytes;
+        }
+
+        private IOException corrupt(String problem){
+            return new IOException("corrupt expression stream: " + problem);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+public class ExprCompiler {
+    /*
+    Compiles an "Expr" expression into a tree of small specialized lambdas that evaluate it with primitive doubles.
+    Variables are bound by slot index: the nth name given to compile reads vars[n].
+    The tree is walked once at compile time, so evaluating does no instanceof checks, boxing or allocation.
+    Subtrees without variables are evaluated once and folded into constants.
+    Compiling and evaluating the lambdas both recurse once per level, so trees deeper than MAX_DEPTH are handed to
+    FlatExpr instead, whose evaluator is one forward pass over its nodes and works at any depth.
+    */
+
+    static final int MAX_DEPTH = 512; //levels compiled into lambdas, deeper trees are evaluated as a FlatExpr
+
+    private final String[] slots;
+
+    private ExprCompiler(String[] slots){
+        this.slots = slots;
+    }
+
+    public static Evaluator compile(Expr expr, String... variables){
+        if(Traversal.deeperThan(expr, MAX_DEPTH)){
+            return FlatExpr.of(expr).evaluator(variables);
+        }
+        return new ExprCompiler(variables).compile(expr);
+    }
+
+    public static DoubleUnaryOperator function(Expr expr, String variable){ //single variable version, not thread safe because it reuses its slot array
+        Evaluator eval = compile(expr, new String[]{variable});
+        double[] vars = new double[1];
+        return x -> {
+            vars[0] = x;
+            return eval.eval(vars);
+        };
+    }
+
+    Evaluator compile(Expr expr){
+        if(expr instanceof Constant){
+            if(expr.num == null){
+                throw new RuntimeException("constant " + expr.name + " has no value");
+            }
+            return new Const(expr.num);
+        }
+        else if(expr instanceof Variable){
+            return variable(expr.name);
+        }
+        else if(expr instanceof Sum sum){
+            return sum(sum.addends);
+        }
+        else if(expr instanceof Product product){
+            return product(product.factors);
+        }
+        else if(expr instanceof Power power){
+            return power.isRoot ? root(compile(power.base), compile(power.exponent)) : power(compile(power.base), compile(power.exponent));
+        }
+        else if(expr instanceof Fraction fraction){
+            Evaluator n = compile(fraction.numerator);
+            Evaluator d = compile(fraction.denominator);
+            return fold(vars -> n.eval(vars) / d.eval(vars), n, d);
+        }
+        else if(expr instanceof TrigFunc trig){
+            return trig(trig.func, compile(trig.val));
+        }
+        else if(expr instanceof Integral){
+            throw new IllegalArgumentException("integrals can't be compiled to a function, Quadrature.integrate evaluates them over a range");
+        }
+        throw new RuntimeException("unknown expression type " + expr.getClass().getSimpleName());
+    }
+
+    private Evaluator variable(String name){
+        if("-".equals(name)){
+            throw new RuntimeException("minus sign without a term after it");
+        }
+        for(int i = 0; i < slots.length; i++){
+            if(slots[i].equals(name)){
+                int slot = i;
+                return vars -> vars[slot];
+            }
+        }
+        throw new RuntimeException("unbound variable " + name);
+    }
+
+    private Evaluator sum(List<Expr> addends){
+        double constant = 0;
+        ArrayList<Evaluator> terms = new ArrayList<>();
+        for(Expr addend : addends){ //constant addends are added together at compile time
+            Evaluator term = compile(addend);
+            if(term instanceof Const c){
+                constant += c.value;
+            } else {
+                terms.add(term);
+            }
+        }
+        if(constant != 0 || terms.isEmpty()){
+            terms.add(new Const(constant));
+        }
+
+        switch(terms.size()){
+            case 1 -> {return terms.get(0);}
+            case 2 -> {
+                Evaluator a = terms.get(0);
+                Evaluator b = terms.get(1);
+                return vars -> a.eval(vars) + b.eval(vars);
+            }
+            case 3 -> {
+                Evaluator a = terms.get(0);
+                Evaluator b = terms.get(1);
+                Evaluator c = terms.get(2);
+                return vars -> a.eval(vars) + b.eval(vars) + c.eval(vars);
+            }
+            default -> {
+                Evaluator[] all = terms.toArray(new Evaluator[0]);
+                return vars -> {
+                    double out = 0;
+                    for(Evaluator term : all){
+                        out += term.eval(vars);
+                    }
+                    return out;
+                };
+            }
+        }
+    }
+
+    private Evaluator product(List<Expr> factors){
+        double coefficient = 1;
+        ArrayList<Evaluator> terms = new ArrayList<>();
+        for(Expr factor : factors){ //minus signs and constant factors are merged into one coefficient
+            if(factor.isMinusSign()){
+                coefficient = -coefficient;
+                continue;
+            }
+            Evaluator term = compile(factor);
+            if(term instanceof Const c){
+                coefficient *= c.value;
+            } else {
+                terms.add(term);
+            }
+        }
+        if(terms.isEmpty()){
+            return new Const(coefficient);
+        }
+
+        Evaluator rest;
+        switch(terms.size()){
+            case 1 -> rest = terms.get(0);
+            case 2 -> {
+                Evaluator a = terms.get(0);
+                Evaluator b = terms.get(1);
+                rest = vars -> a.eval(vars) * b.eval(vars);
+            }
+            default -> {
+                Evaluator[] all = terms.toArray(new Evaluator[0]);
+                rest = vars -> {
+                    double out = 1;
+                    for(Evaluator term : all){
+                        out *= term.eval(vars);
+                    }
+                    return out;
+                };
+            }
+        }
+        if(coefficient == 1){
+            return rest;
+        }
+        if(coefficient == -1){
+            return vars -> -rest.eval(vars);
+        }
+        double k = coefficient;
+        return vars -> k * rest.eval(vars);
+    }
+
+    private static Evaluator power(Evaluator base, Evaluator exponent){
+        if(exponent instanceof Const c){ //common exponents avoid Math.pow
+            double n = c.value;
+            if(n == 1){
+                return base;
+            } else if(n == 2){
+                return fold(vars -> {
+                    double b = base.eval(vars);
+                    return b * b;
+                }, base);
+            } else if(n == 3){
+                return fold(vars -> {
+                    double b = base.eval(vars);
+                    return b * b * b;
+                }, base);
+            } else if(n == -1){
+                return fold(vars -> 1.0 / base.eval(vars), base);
+            } else if(n == 0.5){
+                return fold(vars -> Math.sqrt(base.eval(vars)), base);
+            }
+            return fold(vars -> Math.pow(base.eval(vars), n), base);
+        }
+        return fold(vars -> Math.pow(base.eval(vars), exponent.eval(vars)), base, exponent);
+    }
+
+    private static Evaluator root(Evaluator base, Evaluator index){
+        if(index instanceof Const c){
+            double n = c.value;
+            if(n == 2){
+                return fold(vars -> Math.sqrt(base.eval(vars)), base);
+            } else if(n == 3){
+                return fold(vars -> Math.cbrt(base.eval(vars)), base);
+            }
+            double inverse = 1.0 / n;
+            if(isOdd(n)){
+                return fold(vars -> {
+                    double b = base.eval(vars);
+                    return b < 0 ? -Math.pow(-b, inverse) : Math.pow(b, inverse);
+                }, base);
+            }
+            return fold(vars -> Math.pow(base.eval(vars), inverse), base);
+        }
+        return fold(vars -> nthRoot(base.eval(vars), index.eval(vars)), base, index);
+    }
+
+    static double nthRoot(double b, double n){ //odd roots of negative numbers are real, like Math.cbrt gives them
+        if(n == 2){
+            return Math.sqrt(b);
+        } else if(n == 3){
+            return Math.cbrt(b);
+        } else if(b < 0 && isOdd(n)){
+            return -Math.pow(-b, 1.0 / n);
+        }
+        return Math.pow(b, 1.0 / n);
+    }
+
+    static boolean isOdd(double n){
+        return Math.abs(n % 2) == 1;
+    }
+
+    private static Evaluator trig(Trig func, Evaluator arg){ //the function is picked here once, so eval doesn't switch on it
+        Evaluator out;
+        switch(func){
+            case SIN -> out = vars -> Math.sin(arg.eval(vars));
+            case COS -> out = vars -> Math.cos(arg.eval(vars));
+            case TAN -> out = vars -> Math.tan(arg.eval(vars));
+            case ASIN -> out = vars -> Math.asin(arg.eval(vars));
+            case ACOS -> out = vars -> Math.acos(arg.eval(vars));
+            case ATAN -> out = vars -> Math.atan(arg.eval(vars));
+            case SEC -> out = vars -> 1.0 / Math.cos(arg.eval(vars));
+            case CSC -> out = vars -> 1.0 / Math.sin(arg.eval(vars));
+            default -> out = vars -> 1.0 / Math.tan(arg.eval(vars));
+        }
+        return fold(out, arg);
+    }
+
+    private static Evaluator fold(Evaluator node, Evaluator... children){ //evaluates the node once if none of its children depend on variables
+        for(Evaluator child : children){
+            if(!(child instanceof Const)){
+                return node;
+            }
+        }
+        return new Const(node.eval(null));
+    }
+
+    private static final class Const implements Evaluator {
+        final double value;
+
+        Const(double value){
+            this.value = value;
+        }
+
+        @Override
+        public double eval(double[] vars){
+            return value;
+        }
+    }
+}
+
+interface Evaluator { //compiled expression, vars holds the variable values in the order given to ExprCompiler.compile
+    double eval(double[] vars);
+}
@@ -0,0 +1,188 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ExprFactory {
+    /*
+    Builds expressions with hash consing: structurally identical subtrees are shared as one canonical node.
+    Canonical nodes are kept in a concurrent table with weak references, so a node that nothing else uses
+    can still be garbage collected. Since a canonical node's children are canonical too, comparing two
+    canonical nodes is an identity check and they can be used as cheap map keys for memoizing.
+    intern walks the tree with an explicit stack and skips subtrees that are already canonical, so any depth works.
+    */
+
+    private static final ConcurrentHashMap<WeakKey, WeakKey> TABLE = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Expr> CLEARED = new ReferenceQueue<>();
+
+    public static Expr intern(Expr expr){ //returns the canonical node for the whole tree, reusing expr's nodes where it can
+        if(expr.interned){
+            return expr;
+        }
+        ArrayList<Expr> done = new ArrayList<>(); //canonical children waiting for their parent
+        Expr[] nodes = new Expr[16]; //path to the node being interned, walked without recursion like Traversal.postOrder
+        int[] next = new int[16];
+        int size = 1;
+        nodes[0] = expr;
+        while(size > 0){
+            int top = size - 1;
+            Expr node = nodes[top];
+            int i = next[top];
+            if(i < node.childCount()){
+                next[top] = i + 1;
+                Expr child = node.child(i);
+                if(child.interned){ //canonical subtrees aren't walked again
+                    done.add(child);
+                    continue;
+                }
+                if(size == nodes.length){
+                    nodes = Arrays.copyOf(nodes, size * 2);
+                    next = Arrays.copyOf(next, size * 2);
+                }
+                nodes[size] = child;
+                next[size++] = 0;
+            } else {
+                nodes[--size] = null;
+                List<Expr> children = done.subList(done.size() - node.childCount(), done.size());
+                Expr out = canonical(withChildren(node, children));
+                children.clear();
+                done.add(out);
+            }
+        }
+        return done.get(0);
+    }
+
+    public static Constant constant(double value){
+        return (Constant) intern(new Constant(value));
+    }
+
+    public static Constant constant(String name){
+        return (Constant) intern(new Constant(name));
+    }
+
+    public static Variable variable(String name){
+        return (Variable) intern(new Variable(name));
+    }
+
+    public static Expr sum(List<Expr> addends){
+        return intern(new Sum(addends));
+    }
+
+    public static Expr sum(Expr... addends){
+        return intern(new Sum(List.of(addends)));
+    }
+
+    public static Expr product(List<Expr> factors){
+        return intern(new Product(factors));
+    }
+
+    public static Expr product(Expr... factors){
+        return intern(new Product(List.of(factors)));
+    }
+
+    public static Expr power(Expr base, Expr exponent){
+        return intern(new Power(base, exponent));
+    }
+
+    public static Expr root(Expr base, Expr root){
+        return intern(new Power(base, root, true));
+    }
+
+    public static Expr fraction(Expr numerator, Expr denominator){
+        return intern(new Fraction(numerator, denominator));
+    }
+
+    public static Expr trig(Trig func, Expr arg){
+        return intern(new TrigFunc(func, arg));
+    }
+
+    public static Expr integral(Expr arg, Variable respectTo){
+        return intern(new Integral(arg, respectTo));
+    }
+
+    static int size(){ //number of canonical nodes currently in the table
+        expunge();
+        return TABLE.size();
+    }
+
+    private static Expr withChildren(Expr expr, List<Expr> children){ //rebuilds the node only if one of its children was replaced
+        boolean same = true;
+        for(int i = 0; i < children.size(); i++){
+            same &= children.get(i) == expr.child(i);
+        }
+        if(same){
+            return expr;
+        }
+        if(expr instanceof Sum){
+            return new Sum(children); //the constructors copy the list
+        }
+        else if(expr instanceof Product){
+            return new Product(children);
+        }
+        else if(expr instanceof Power power){
+            return new Power(children.get(0), children.get(1), power.isRoot);
+        }
+        else if(expr instanceof Fraction){
+            return new Fraction(children.get(0), children.get(1));
+        }
+        else if(expr instanceof TrigFunc trig){
+            return new TrigFunc(trig.func, children.get(0));
+        }
+        else if(expr instanceof Integral){
+            return new Integral(children.get(0), (Variable) children.get(1));
+        }
+        return expr; //constants and variables have no children
+    }
+
+    private static Expr canonical(Expr node){ //node's children are already canonical
+        expunge();
+        WeakKey key = new WeakKey(node);
+        while(true){
+            WeakKey existing = TABLE.putIfAbsent(key, key);
+            if(existing == null){
+                node.interned = true; //only marked once it is in the table, so a losing duplicate is never treated as canonical
+                return node;
+            }
+            Expr found = existing.get();
+            if(found != null){
+                return found;
+            }
+            TABLE.remove(existing, existing); //the old canonical node was collected, try again
+        }
+    }
+
+    private static void expunge(){ //drops table entries whose nodes were garbage collected
+        Object cleared;
+        while((cleared = CLEARED.poll()) != null){
+            TABLE.remove(cleared, cleared);
+        }
+    }
+
+    private static final class WeakKey extends WeakReference<Expr> {
+        private final int hash;
+
+        WeakKey(Expr expr){
+            super(expr, CLEARED);
+            this.hash = expr.hashCode();
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o){ //a cleared key is only equal to itself
+            if(this == o){
+                return true;
+            }
+            if(!(o instanceof WeakKey other) || other.hash != hash){
+                return false;
+            }
+            Expr expr = get();
+            return expr != null && expr.equals(other.get());
+        }
+    }
+}
@@ -0,0 +1,497 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public final class FlatExpr {
+    /*
+    Compact read-only form of an expression for very large trees, stored as parallel arrays instead of one object per node.
+    Nodes are numbered in post-order, so every child comes before its parent and the root is the last node.
+    For node i, kinds[i] is its type, data[i] its payload (index into the constant pool for numbers, into names for
+    variables and symbols, the Trig ordinal for trig functions, the differential's name for integrals) and
+    its children are children[first[i] .. first[i] + count[i]). Children are stored in the same order as the Expr
+    fields: addends, factors, base then exponent (or index for roots), numerator then denominator, integral argument.
+    Subtrees that are the same object in the Expr (like the shared nodes from ExprFactory or Derivative) become one node.
+    Evaluation is a single forward pass over the nodes, and toLatex writes the same text as Expr.toLatex.
+    */
+
+    static final int NUMBER = 0;   //constant with a value
+    static final int SYMBOL = 1;   //named constant without a value
+    static final int VARIABLE = 2;
+    static final int SUM = 3;
+    static final int PRODUCT = 4;
+    static final int POWER = 5;
+    static final int ROOT = 6;
+    static final int FRACTION = 7;
+    static final int TRIG = 8;
+    static final int INTEGRAL = 9;
+
+    private static final Trig[] TRIGS = Trig.values();
+
+    //text that toLatex may have to defer, stored on its stack as -1 - index, with the names numbered after TEXTS
+    private static final String[] TEXTS = {"+", "^{", "}", "}(", ")", ")^{", "]{", "}{", "("};
+    private static final int PLUS = -1, CARET = -2, CLOSE_CURLY = -3, CLOSE_OPEN_PAREN = -4, CLOSE_PAREN = -5,
+        CLOSE_PAREN_CARET = -6, INDEX_END = -7, BETWEEN_CURLIES = -8, OPEN_PAREN = -9;
+
+    final int size;
+    final int[] kinds;
+    final int[] data;
+    final int[] first;
+    final int[] count;
+    final int[] children;
+    final double[] values; //constant pool
+    final int[] texts; //name index of each pooled constant's text, or -1 for constants printed from their value
+    final String[] names; //each variable, symbol and constant text once
+    private final int minus; //name index of the "-" a product uses for a leading minus sign, or -1
+
+    private FlatExpr(Builder b){
+        size = b.size;
+        kinds = Arrays.copyOf(b.kinds, size);
+        data = Arrays.copyOf(b.data, size);
+        first = Arrays.copyOf(b.first, size);
+        count = Arrays.copyOf(b.count, size);
+        children = Arrays.copyOf(b.children, b.childCount);
+        values = Arrays.copyOf(b.values, b.constantCount);
+        texts = Arrays.copyOf(b.texts, b.constantCount);
+        names = b.names.keySet().toArray(new String[0]);
+        for(var entry : b.names.entrySet()){
+            names[entry.getValue()] = entry.getKey();
+        }
+        Integer minusName = b.names.get("-");
+        minus = minusName == null ? -1 : minusName;
+    }
+
+    public static FlatExpr of(Expr expr){
+        Builder builder = new Builder();
+        builder.add(expr);
+        return new FlatExpr(builder);
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public Expr toExpr(){ //rebuilds the Expr classes in one forward pass, shared nodes stay shared
+        Expr[] built = new Expr[size];
+        for(int i = 0; i < size; i++){
+            int from = first[i];
+            switch(kinds[i]){
+                case NUMBER -> {
+                    int c = data[i];
+                    built[i] = texts[c] == -1 ? new Constant(values[c]) : new Constant(values[c], names[texts[c]]);
+                }
+                case SYMBOL -> built[i] = new Constant(names[data[i]]);
+                case VARIABLE -> built[i] = new Variable(names[data[i]]);
+                case SUM -> built[i] = new Sum(collect(built, i));
+                case PRODUCT -> built[i] = new Product(collect(built, i));
+                case POWER -> built[i] = new Power(built[children[from]], built[children[from+1]]);
+                case ROOT -> built[i] = new Power(built[children[from]], built[children[from+1]], true);
+                case FRACTION -> built[i] = new Fraction(built[children[from]], built[children[from+1]]);
+                case TRIG -> built[i] = new TrigFunc(TRIGS[data[i]], built[children[from]]);
+                default -> built[i] = new Integral(built[children[from]], new Variable(names[data[i]]));
+            }
+        }
+        return built[size - 1];
+    }
+
+    private List<Expr> collect(Expr[] built, int node){
+        Expr[] out = new Expr[count[node]];
+        for(int j = 0; j < out.length; j++){
+            out[j] = built[children[first[node] + j]];
+        }
+        return Arrays.asList(out);
+    }
+
+    public Evaluator evaluator(String... variables){ //same results and errors as ExprCompiler.compile, thread safe
+        int[] slots = new int[names.length];
+        Arrays.fill(slots, -1);
+        for(int i = 0; i < variables.length; i++){
+            Integer name = indexOf(variables[i]);
+            if(name != null){
+                slots[name] = i;
+            }
+        }
+        for(int i = 0; i < size; i++){ //errors are found before evaluating, like when compiling
+            switch(kinds[i]){
+                case SYMBOL -> throw new RuntimeException("constant " + names[data[i]] + " has no value");
+                case INTEGRAL -> throw new IllegalArgumentException("integrals can't be compiled to a function, Quadrature.integrate evaluates them over a range");
+                case VARIABLE -> {
+                    if(data[i] != minus && slots[data[i]] == -1){
+                        throw new RuntimeException("unbound variable " + names[data[i]]);
+                    }
+                }
+                case PRODUCT -> {continue;}
+                default -> checkNoMinus(i);
+            }
+        }
+        if(kinds[size-1] == VARIABLE && data[size-1] == minus){
+            throw new RuntimeException("minus sign without a term after it");
+        }
+        ThreadLocal<double[]> values = ThreadLocal.withInitial(() -> new double[size]); //each thread reuses one array of node values
+        return vars -> evaluate(slots, vars, values.get());
+    }
+
+    private void checkNoMinus(int node){ //a minus sign only means something as a factor of a product
+        for(int j = first[node]; j < first[node] + count[node]; j++){
+            if(kinds[children[j]] == VARIABLE && data[children[j]] == minus){
+                throw new RuntimeException("minus sign without a term after it");
+            }
+        }
+    }
+
+    private double evaluate(int[] slots, double[] vars, double[] value){ //children are always evaluated before their parents
+        for(int i = 0; i < size; i++){
+            int from = first[i];
+            int to = from + count[i];
+            double out;
+            switch(kinds[i]){
+                case NUMBER -> out = values[data[i]];
+                case VARIABLE -> out = data[i] == minus ? -1 : vars[slots[data[i]]];
+                case SUM -> {
+                    out = 0;
+                    for(int j = from; j < to; j++){
+                        out += value[children[j]];
+                    }
+                }
+                case PRODUCT -> {
+                    out = 1;
+                    for(int j = from; j < to; j++){
+                        out *= value[children[j]]; //minus signs evaluate to -1
+                    }
+                }
+                case POWER -> out = power(value[children[from]], value[children[from+1]]);
+                case ROOT -> out = ExprCompiler.nthRoot(value[children[from]], value[children[from+1]]);
+                case FRACTION -> out = value[children[from]] / value[children[from+1]];
+                case TRIG -> out = TRIGS[data[i]].apply(value[children[from]]);
+                default -> throw new RuntimeException("node " + i + " can't be evaluated");
+            }
+            value[i] = out;
+        }
+        return value[size - 1];
+    }
+
+    private static double power(double b, double n){ //the same special cases as ExprCompiler
+        if(n == 1){
+            return b;
+        } else if(n == 2){
+            return b * b;
+        } else if(n == 3){
+            return b * b * b;
+        } else if(n == -1){
+            return 1.0 / b;
+        } else if(n == 0.5){
+            return Math.sqrt(b);
+        }
+        return Math.pow(b, n);
+    }
+
+    private Integer indexOf(String name){
+        for(int i = 0; i < names.length; i++){
+            if(names[i].equals(name)){
+                return i;
+            }
+        }
+        return null;
+    }
+
+    public String toLatex(){ //same text as Expr.toLatex, written like LatexWriter does: in place until MAX_INLINE_DEPTH, then from a stack
+        StringBuilder out = new StringBuilder();
+        IntStack stack = new IntStack();
+        stack.push(size - 1);
+        while(stack.size > 0){
+            int item = stack.items[--stack.size];
+            if(item < 0){
+                int text = -1 - item;
+                out.append(text < TEXTS.length ? TEXTS[text] : names[text - TEXTS.length]);
+                continue;
+            }
+            stack.mark = stack.size;
+            stack.level = 0;
+            write(item, out, stack);
+            stack.reverseFrom(stack.mark); //deferred in output order, popped first to last
+        }
+        return out.toString();
+    }
+
+    private void write(int node, StringBuilder out, IntStack rest){ //mirrors the writeParts methods of the Expr classes, rest holds what is deferred
+        int from = first[node];
+        switch(kinds[node]){
+            case NUMBER -> {
+                int c = data[node];
+                if(texts[c] == -1){
+                    out.append(String.valueOf(values[c]));
+                } else {
+                    out.append(names[texts[c]]);
+                }
+            }
+            case SYMBOL, VARIABLE -> out.append(names[data[node]]);
+            case SUM -> {
+                for(int j = from; j < from + count[node]; j++){
+                    if(j > from){
+                        text(PLUS, out, rest);
+                    }
+                    child(children[j], out, rest);
+                }
+            }
+            case PRODUCT -> {
+                for(int j = from; j < from + count[node]; j++){
+                    if(kinds[children[j]] == SUM){ //a sum has to be bracketed to stay one factor
+                        text(OPEN_PAREN, out, rest);
+                        child(children[j], out, rest);
+                        text(CLOSE_PAREN, out, rest);
+                    } else {
+                        child(children[j], out, rest);
+                    }
+                }
+            }
+            case POWER -> {
+                int base = children[from];
+                int exponent = children[from+1];
+                if(kinds[base] == TRIG){
+                    out.append(TRIGS[data[base]].name).append("^{");
+                    child(exponent, out, rest);
+                    text(CLOSE_OPEN_PAREN, out, rest);
+                    child(children[first[base]], out, rest);
+                    text(CLOSE_PAREN, out, rest);
+                } else if(kinds[base] <= VARIABLE && !writtenNegative(base)){
+                    child(base, out, rest);
+                    text(CARET, out, rest);
+                    child(exponent, out, rest);
+                    text(CLOSE_CURLY, out, rest);
+                } else {
+                    out.append('(');
+                    child(base, out, rest);
+                    text(CLOSE_PAREN_CARET, out, rest);
+                    child(exponent, out, rest);
+                    text(CLOSE_CURLY, out, rest);
+                }
+            }
+            case ROOT -> {
+                int index = children[from+1];
+                if(kinds[index] == NUMBER && values[data[index]] == 2.0){
+                    out.append("\\sqrt{");
+                } else {
+                    out.append("\\sqrt[");
+                    child(index, out, rest);
+                    text(INDEX_END, out, rest);
+                }
+                child(children[from], out, rest);
+                text(CLOSE_CURLY, out, rest);
+            }
+            case FRACTION -> {
+                out.append("\\frac{");
+                child(children[from], out, rest);
+                text(BETWEEN_CURLIES, out, rest);
+                child(children[from+1], out, rest);
+                text(CLOSE_CURLY, out, rest);
+            }
+            case TRIG -> {
+                out.append(TRIGS[data[node]].name).append('(');
+                child(children[from], out, rest);
+                text(CLOSE_PAREN, out, rest);
+            }
+            default -> {
+                out.append("\\int(");
+                child(children[from], out, rest);
+                text(CLOSE_PAREN, out, rest);
+                text(-1 - (TEXTS.length + data[node]), out, rest); //the differential's name
+            }
+        }
+    }
+
+    private boolean writtenNegative(int node){ //a number written with a leading minus, bracketed as a power's base like in Power.writeParts
+        if(kinds[node] != NUMBER){
+            return false;
+        }
+        int c = data[node];
+        return texts[c] == -1 ? Math.copySign(1.0, values[c]) < 0 : names[texts[c]].startsWith("-");
+    }
+
+    private void child(int node, StringBuilder out, IntStack rest){
+        if(rest.size == rest.mark && rest.level < LatexWriter.MAX_INLINE_DEPTH){
+            rest.level++;
+            write(node, out, rest);
+            rest.level--;
+        } else {
+            rest.push(node);
+        }
+    }
+
+    private void text(int code, StringBuilder out, IntStack rest){
+        if(rest.size == rest.mark){
+            int text = -1 - code;
+            out.append(text < TEXTS.length ? TEXTS[text] : names[text - TEXTS.length]);
+        } else {
+            rest.push(code);
+        }
+    }
+
+    private static final class IntStack { //node numbers and text codes still to write
+        int[] items = new int[64];
+        int size = 0;
+        int mark; //size when the node being written was popped, nothing is deferred while size == mark
+        int level; //nodes written in place below it
+
+        void push(int item){
+            if(size == items.length){
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = item;
+        }
+
+        void reverseFrom(int mark){
+            for(int i = mark, j = size - 1; i < j; i++, j--){
+                int tmp = items[i];
+                items[i] = items[j];
+                items[j] = tmp;
+            }
+        }
+    }
+
+    private static final class Builder { //growable arrays filled in post-order while walking the Expr
+        int size = 0;
+        int[] kinds = new int[64];
+        int[] data = new int[64];
+        int[] first = new int[64];
+        int[] count = new int[64];
+        int childCount = 0;
+        int[] children = new int[64];
+        int constantCount = 0;
+        double[] values = new double[16];
+        int[] texts = new int[16];
+        final HashMap<String, Integer> names = new HashMap<>();
+        final HashMap<Expr, Integer> constants = new HashMap<>(); //equal constants share one pool entry
+        final IdentityHashMap<Expr, Integer> done = new IdentityHashMap<>();
+        int[] stack = new int[64]; //finished child node numbers waiting for their parent
+        int top = 0;
+
+        int add(Expr root){ //appends the subtree and returns the node number of its root, keeping the path on arrays instead of recursing
+            Expr[] path = new Expr[16]; //nodes whose children are being added
+            int[] next = new int[16]; //index of the next child to add for each of them
+            int depth = 0;
+            Expr expr = root;
+            while(true){
+                int node = -1;
+                Integer seen = done.get(expr);
+                if(seen != null){
+                    node = seen;
+                }
+                else if(expr instanceof Constant || expr instanceof Variable){
+                    node = leaf(expr);
+                    done.put(expr, node);
+                }
+                else {
+                    if(depth == path.length){
+                        path = Arrays.copyOf(path, depth * 2);
+                        next = Arrays.copyOf(next, depth * 2);
+                    }
+                    path[depth] = expr;
+                    next[depth++] = 0;
+                }
+                while(true){ //hands finished nodes to their parents until one has a child left to add
+                    if(node != -1){
+                        if(depth == 0){
+                            return node;
+                        }
+                        push(node);
+                    }
+                    Expr parent = path[depth-1];
+                    int i = next[depth-1];
+                    if(i < subtrees(parent)){
+                        next[depth-1] = i + 1;
+                        expr = parent.child(i);
+                        break;
+                    }
+                    path[--depth] = null;
+                    node = inner(parent, i);
+                    done.put(parent, node);
+                }
+            }
+        }
+
+        private static int subtrees(Expr expr){ //children stored as nodes, an integral's differential is its payload instead
+            return expr instanceof Integral ? 1 : expr.childCount();
+        }
+
+        private int leaf(Expr expr){
+            if(expr instanceof Constant){
+                return expr.num == null ? node(SYMBOL, name(expr.name), 0) : node(NUMBER, constant(expr), 0);
+            }
+            return node(VARIABLE, name(expr.name), 0);
+        }
+
+        private int inner(Expr expr, int n){ //appends the node for expr, whose n children are the newest node numbers on the stack
+            if(childCount + n > children.length){
+                children = Arrays.copyOf(children, Math.max(children.length * 2, childCount + n));
+            }
+            top -= n;
+            System.arraycopy(stack, top, children, childCount, n);
+            childCount += n;
+            if(expr instanceof Sum){
+                return node(SUM, 0, n);
+            }
+            else if(expr instanceof Product){
+                return node(PRODUCT, 0, n);
+            }
+            else if(expr instanceof Power power){
+                return node(power.isRoot ? ROOT : POWER, 0, n);
+            }
+            else if(expr instanceof Fraction){
+                return node(FRACTION, 0, n);
+            }
+            else if(expr instanceof TrigFunc trig){
+                return node(TRIG, trig.func.ordinal(), n);
+            }
+            else if(expr instanceof Integral integral){
+                return node(INTEGRAL, name(integral.respectTo.name), n);
+            }
+            throw new RuntimeException("unknown expression type " + expr.getClass().getSimpleName());
+        }
+
+        private int node(int kind, int payload, int n){ //appends a node whose n children are the last ones added to children
+            if(size == kinds.length){
+                int grown = size * 2;
+                kinds = Arrays.copyOf(kinds, grown);
+                data = Arrays.copyOf(data, grown);
+                first = Arrays.copyOf(first, grown);
+                count = Arrays.copyOf(count, grown);
+            }
+            kinds[size] = kind;
+            data[size] = payload;
+            first[size] = childCount - n;
+            count[size] = n;
+            return size++;
+        }
+
+        private void push(int node){
+            if(top == stack.length){
+                stack = Arrays.copyOf(stack, top * 2);
+            }
+            stack[top++] = node;
+        }
+
+        private int name(String name){
+            Integer index = names.get(name);
+            if(index == null){
+                index = names.size();
+                names.put(name, index);
+            }
+            return index;
+        }
+
+        private int constant(Expr constant){
+            Integer index = constants.get(constant);
+            if(index == null){
+                if(constantCount == values.length){
+                    values = Arrays.copyOf(values, constantCount * 2);
+                    texts = Arrays.copyOf(texts, constantCount * 2);
+                }
+                index = constantCount++;
+                values[index] = constant.num;
+                texts[index] = constant.name == null ? -1 : name(constant.name);
+                constants.put(constant, index);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class FunctionSampler {
+    /*
+    Samples a single variable expression for plotting, with points where the curve needs them instead of a uniform grid.
+    The expression is compiled with ExprCompiler and first evaluated on INITIAL_SEGMENTS even segments. A segment is
+    split at its midpoint while the curve bends away from its chord by more than the tolerance, or while one end has
+    a value and the other doesn't (the edge of a gap, or a pole hit exactly). The tolerance is relative to the spread of
+    the first values, ignoring the top and bottom tenth so poles don't flatten everything else. The tests clamp values
+    to a window of WINDOW spreads around those, so the steep flanks of a pole, which would take endless points to
+    follow and are off any sensible plot anyway, aren't refined. The segments next to a point outside the window that
+    is higher than both its neighbours are kept, since they may hold a pole that doesn't cross the window, like 1/x^2.
+    Refinement goes one level at a time: every segment that failed its test gets its midpoint evaluated in the same
+    round, split into fork/join tasks when there are many. When the point budget can't cover a whole round, the segments
+    that bend the most go first, so the budget is spread over the worst parts of the curve instead of the leftmost ones.
+    A segment still failing at MAX_DEPTH with a large step between its ends is a discontinuity. Of a run of those next
+    to each other, the one with the largest values at both ends becomes a break in the output, marked POLE when the
+    curve grows towards it from both sides and JUMP otherwise.
+    Points without a value keep their x, get NaN as y and are marked GAP, or POLE if the value was infinite.
+    Every break has a NaN y, so a plotter can draw the points as one polyline that lifts the pen at NaN.
+    */
+
+    static final int INITIAL_SEGMENTS = 128;
+    static final int MAX_DEPTH = 40; //halvings of an initial segment, about 1e-14 of the range
+    static final int PARALLEL_THRESHOLD = 1 << 10; //midpoints per task, smaller rounds are evaluated on the calling thread
+    static final double DEFAULT_TOLERANCE = 1e-3; //about a pixel on a plot a thousand pixels high
+    static final double WINDOW = 2; //spreads above and below the first values that the bend tests still see
+
+    //point marks
+    public static final byte POINT = 0;
+    public static final byte POLE = 1;
+    public static final byte JUMP = 2;
+    public static final byte GAP = 3;
+
+    private final Evaluator function;
+    private double tol; //largest allowed bend
+    private double low; //bend tests clamp values to low and high
+    private double high;
+
+    private FunctionSampler(Evaluator function){
+        this.function = function;
+    }
+
+    public static Plot sample(Expr expr, Variable variable, double from, double to, int budget){
+        return sample(expr, variable, from, to, budget, DEFAULT_TOLERANCE);
+    }
+
+    public static Plot sample(Expr expr, Variable variable, double from, double to, int budget, double tolerance){
+        if(!(from < to) || Double.isInfinite(from) || Double.isInfinite(to)){
+            throw new IllegalArgumentException("range has to be finite with from < to");
+        }
+        if(!(tolerance > 0)){
+            throw new IllegalArgumentException("tolerance has to be positive");
+        }
+        if(budget < INITIAL_SEGMENTS + 1){
+            throw new IllegalArgumentException("point budget has to be at least " + (INITIAL_SEGMENTS + 1));
+        }
+        return new FunctionSampler(ExprCompiler.compile(expr, variable.name)).run(from, to, budget, tolerance);
+    }
+
+    private Plot run(double from, double to, int budget, double tolerance){
+        int n = INITIAL_SEGMENTS + 1;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] vars = new double[1];
+        for(int i = 0; i < n; i++){
+            x[i] = i == INITIAL_SEGMENTS ? to : from + (to - from) * i / INITIAL_SEGMENTS;
+            vars[0] = x[i];
+            y[i] = function.eval(vars);
+        }
+        int evaluations = n;
+        window(y, tolerance);
+
+        byte[] depth = new byte[n - 1]; //per segment, between point i and i + 1
+        double[] score = new double[n - 1]; //how badly the segment failed its test, 0 once it passed, -1 if it failed at MAX_DEPTH
+        for(int i = 0; i < n - 1; i++){
+            score[i] = initialScore(y, i);
+            stopAtLimit(x[i], x[i+1], depth, score, i);
+        }
+        keepPeaks(y, depth, score);
+
+        boolean complete = true;
+        while(true){
+            int active = 0;
+            for(double s : score){
+                if(s > 0){
+                    active++;
+                }
+            }
+            if(active == 0){
+                break;
+            }
+            if(evaluations == budget){
+                complete = false;
+                break;
+            }
+            int[] picked = pick(score, active, budget - evaluations);
+            int k = picked.length;
+            double[] mids = new double[k];
+            double[] values = new double[k];
+            Midpoints task = new Midpoints(picked, x, mids, values, 0, k);
+            if(k > PARALLEL_THRESHOLD){
+                ForkJoinPool.commonPool().invoke(task);
+            } else {
+                task.compute();
+            }
+            evaluations += k;
+
+            int m = n + k;
+            double[] nx = new double[m];
+            double[] ny = new double[m];
+            byte[] nd = new byte[m - 1];
+            double[] ns = new double[m - 1];
+            int p = 0;
+            int o = 0;
+            for(int i = 0; i < n - 1; i++){
+                nx[o] = x[i];
+                ny[o] = y[i];
+                if(p < k && picked[p] == i){ //split in two halves that are tested against the parent's bend
+                    nx[o+1] = mids[p];
+                    ny[o+1] = values[p];
+                    nd[o] = nd[o+1] = (byte) (depth[i] + 1);
+                    double bend = bend(y[i], values[p], y[i+1]);
+                    ns[o] = halfScore(y[i], values[p], bend);
+                    ns[o+1] = halfScore(values[p], y[i+1], bend);
+                    stopAtLimit(x[i], mids[p], nd, ns, o);
+                    stopAtLimit(mids[p], x[i+1], nd, ns, o + 1);
+                    o += 2;
+                    p++;
+                } else {
+                    nd[o] = depth[i];
+                    ns[o] = score[i];
+                    o++;
+                }
+            }
+            nx[o] = x[n-1];
+            ny[o] = y[n-1];
+            x = nx;
+            y = ny;
+            depth = nd;
+            score = ns;
+            n = m;
+            keepPeaks(y, depth, score);
+        }
+        return plot(x, y, score, evaluations, complete);
+    }
+
+    private void window(double[] y, double tolerance){ //scales the tests by the spread of the finite values between the 10th and 90th percentile
+        double[] finite = new double[y.length];
+        int count = 0;
+        for(double v : y){
+            if(Double.isFinite(v)){
+                finite[count++] = v;
+            }
+        }
+        double bottom = 0;
+        double top = 0;
+        double spread = 1;
+        if(count > 0){
+            Arrays.sort(finite, 0, count);
+            bottom = finite[count / 10];
+            top = finite[count * 9 / 10];
+            spread = top - bottom;
+            if(!(spread > 0 && Double.isFinite(spread))){
+                double max = Math.max(Math.abs(finite[0]), Math.abs(finite[count-1]));
+                spread = max > 0 && Double.isFinite(max) ? max : 1;
+            }
+        }
+        tol = tolerance * spread;
+        low = bottom - WINDOW * spread;
+        high = top + WINDOW * spread;
+    }
+
+    private double clamp(double v){
+        return Math.max(low, Math.min(high, v));
+    }
+
+    private double bend(double a, double m, double b){ //how far the midpoint is off the chord, inside the window, NaN if any has no value
+        if(!(Double.isFinite(a) && Double.isFinite(m) && Double.isFinite(b))){
+            return Double.NaN;
+        }
+        return Math.abs(clamp(m) - (clamp(a) + clamp(b)) / 2);
+    }
+
+    private void keepPeaks(double[] y, byte[] depth, double[] score){ //reopens the segments on both sides of a peak outside the window
+        for(int j = 1; j < y.length - 1; j++){
+            double v = Math.abs(y[j]);
+            if((y[j] > high || y[j] < low) && v > Math.abs(y[j-1]) && v > Math.abs(y[j+1])){
+                for(int i = j - 1; i <= j; i++){
+                    if(score[i] == 0){
+                        score[i] = depth[i] < MAX_DEPTH ? Double.MIN_VALUE : -1;
+                    }
+                }
+            }
+        }
+    }
+
+    private double initialScore(double[] y, int i){ //bend estimated from the second differences at both ends
+        boolean a = Double.isFinite(y[i]);
+        boolean b = Double.isFinite(y[i+1]);
+        if(a != b){
+            return Double.POSITIVE_INFINITY;
+        }
+        if(!a){
+            return 0;
+        }
+        double bend = -1;
+        if(i > 0 && Double.isFinite(y[i-1])){
+            bend = bend(y[i-1], y[i], y[i+1]) / 4; //a parabola through three points is off this segment's chord by a quarter of that
+        }
+        if(i + 2 < y.length && Double.isFinite(y[i+2])){
+            bend = Math.max(bend, bend(y[i], y[i+1], y[i+2]) / 4);
+        }
+        if(bend < 0){ //no neighbour with a value, check the midpoint once
+            return Double.MIN_VALUE;
+        }
+        return bend > tol ? bend : 0;
+    }
+
+    private double halfScore(double a, double b, double parentBend){ //a or b is the parent's midpoint
+        boolean l = Double.isFinite(a);
+        boolean r = Double.isFinite(b);
+        if(l != r){
+            return Double.POSITIVE_INFINITY;
+        }
+        if(!l){
+            return 0;
+        }
+        if(!Double.isFinite(parentBend)){ //the parent had an end without a value, this half has no bend to go by yet
+            return Double.MIN_VALUE;
+        }
+        return parentBend > tol ? parentBend : 0;
+    }
+
+    private static void stopAtLimit(double a, double b, byte[] depth, double[] score, int i){ //segments too narrow to split aren't refined
+        double mid = (a + b) / 2;
+        if(depth[i] >= MAX_DEPTH || !(mid > a && mid < b)){
+            depth[i] = MAX_DEPTH;
+            score[i] = score[i] > Double.MIN_VALUE ? -1 : 0; //a segment only checked once has nothing to fail
+        }
+    }
+
+    private static int[] pick(double[] score, int active, int room){ //the room segments with the highest scores, in x order
+        int k = Math.min(active, room);
+        if(k == active){
+            int[] picked = new int[k];
+            int c = 0;
+            for(int i = 0; i < score.length; i++){
+                if(score[i] > 0){
+                    picked[c++] = i;
+                }
+            }
+            return picked;
+        }
+        double[] sorted = new double[active];
+        int c = 0;
+        for(double s : score){
+            if(s > 0){
+                sorted[c++] = s;
+            }
+        }
+        Arrays.sort(sorted);
+        double cutoff = sorted[active - k]; //kth highest score
+        int ties = k;
+        for(double s : sorted){
+            if(s > cutoff){
+                ties--;
+            }
+        }
+        int[] picked = new int[k];
+        c = 0;
+        for(int i = 0; i < score.length && c < k; i++){
+            if(score[i] > cutoff || score[i] == cutoff && ties-- > 0){
+                picked[c++] = i;
+            }
+        }
+        return picked;
+    }
+
+    private Plot plot(double[] x, double[] y, double[] score, int evaluations, boolean complete){
+        int n = x.length;
+        byte[] breaks = new byte[n - 1]; //POLE or JUMP for segments with a discontinuity
+        int count = n;
+        int start = -1; //first segment of the current run of discontinuities
+        int best = -1; //segment of the run with the largest values
+        for(int i = 0; i < n; i++){
+            if(i < n - 1 && score[i] < 0 && Double.isFinite(y[i]) && Double.isFinite(y[i+1]) && Math.abs(y[i+1] - y[i]) > tol){
+                if(best < 0){
+                    start = i;
+                }
+                if(best < 0 || low(y, i) > low(y, best)){
+                    best = i;
+                }
+            }
+            else if(best >= 0 && (Double.isInfinite(y[i]) || start > 0 && Double.isInfinite(y[start-1]))){ //a pole that was hit exactly, its point is marked already
+                best = -1;
+            }
+            else if(best >= 0){
+                boolean left = best == 0 || !Double.isFinite(y[best-1]) || Math.abs(y[best]) >= Math.abs(y[best-1]);
+                boolean right = best + 2 == n || !Double.isFinite(y[best+2]) || Math.abs(y[best+1]) >= Math.abs(y[best+2]);
+                breaks[best] = left && right ? POLE : JUMP;
+                count++;
+                best = -1;
+            }
+        }
+        double[] px = new double[count];
+        double[] py = new double[count];
+        byte[] marks = new byte[count];
+        int o = 0;
+        for(int i = 0; i < n; i++){
+            px[o] = x[i];
+            if(Double.isFinite(y[i])){
+                py[o] = y[i];
+            } else {
+                py[o] = Double.NaN;
+                marks[o] = Double.isInfinite(y[i]) ? POLE : GAP;
+            }
+            o++;
+            if(i < n - 1 && breaks[i] != POINT){
+                px[o] = (x[i] + x[i+1]) / 2;
+                py[o] = Double.NaN;
+                marks[o] = breaks[i];
+                o++;
+            }
+        }
+        return new Plot(px, py, marks, evaluations, complete);
+    }
+
+    private static double low(double[] y, int i){ //smaller size of a segment's two ends
+        return Math.min(Math.abs(y[i]), Math.abs(y[i+1]));
+    }
+
+    @SuppressWarnings("serial")
+    private final class Midpoints extends RecursiveAction { //evaluates the midpoints of picked segments from up to to
+        private final int[] picked;
+        private final double[] x;
+        private final double[] mids;
+        private final double[] values;
+        private final int from;
+        private final int to;
+
+        Midpoints(int[] picked, double[] x, double[] mids, double[] values, int from, int to){
+            this.picked = picked;
+            this.x = x;
+            this.mids = mids;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from > PARALLEL_THRESHOLD){
+                int half = (from + to) >>> 1;
+                invokeAll(new Midpoints(picked, x, mids, values, from, half), new Midpoints(picked, x, mids, values, half, to));
+                return;
+            }
+            double[] vars = new double[1]; //evaluation slot owned by this task
+            for(int j = from; j < to; j++){
+                int i = picked[j];
+                vars[0] = mids[j] = (x[i] + x[i+1]) / 2;
+                values[j] = function.eval(vars);
+            }
+        }
+    }
+
+    public static final class Plot {
+        public final double[] x;
+        public final double[] y; //NaN where the curve breaks
+        public final byte[] marks; //POINT, or POLE, JUMP or GAP for the NaN entries of y
+        public final int evaluations;
+        public final boolean complete; //false if the budget ran out before every segment passed its test
+
+        Plot(double[] x, double[] y, byte[] marks, int evaluations, boolean complete){
+            this.x = x;
+            this.y = y;
+            this.marks = marks;
+            this.evaluations = evaluations;
+            this.complete = complete;
+        }
+
+        public double[] positions(byte mark){ //x of every entry with the given mark, like the poles
+            int count = 0;
+            for(byte m : marks){
+                if(m == mark){
+                    count++;
+                }
+            }
+            double[] out = new double[count];
+            int o = 0;
+            for(int i = 0; i < marks.length; i++){
+                if(marks[i] == mark){
+                    out[o++] = x[i];
+                }
+            }
+            return out;
+        }
+
+        @Override
+        public String toString(){
+            return x.length + " points (" + positions(POLE).length + " poles, " + positions(JUMP).length + " jumps, "
+                + positions(GAP).length + " gap points, " + evaluations + " evaluations" + (complete ? ")" : ", budget ran out)");
+        }
+    }
+}
@@ -0,0 +1,28 @@
+public class Instrumentation {
+    /*
+    Switch for the opt-in parser and emitter measurements.
+    metrics is read once per parse or emit: when it is null the normal code path runs, and the only extra cost
+    inside the parser is a null check on its sample field at each construct.
+    */
+
+    static volatile ParseMetrics metrics = null;
+
+    public static void enable(ParseMetrics target){
+        metrics = target;
+    }
+
+    public static void disable(){
+        metrics = null;
+    }
+
+    static void report(ParseMetrics target, ParseSample sample, long start, Expr out){ //finishes the sample and hands it on
+        sample.nanos = System.nanoTime() - start;
+        target.end(sample.begun);
+        if(out == null){
+            sample.failed = true;
+        } else {
+            sample.countNodes(out);
+        }
+        target.parsed(sample);
+    }
+}
@@ -0,0 +1,150 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+public class JfrParseMetrics implements ParseMetrics {
+    /*
+    ParseMetrics that records every parse and emit as a JDK Flight Recorder event, so they show up in a recording
+    next to GC and allocation data. Enable with Instrumentation.enable(new JfrParseMetrics()) and record with
+    -XX:StartFlightRecording. Events are only started and filled in when the recording has them enabled, and are timed
+    with the event's own begin and end, so their duration is the parse or emit and the recording's threshold applies.
+    */
+
+    @Override
+    public Object beginParse(){
+        ParseEvent event = new ParseEvent();
+        if(!event.isEnabled()){
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Object beginEmit(){
+        EmitEvent event = new EmitEvent();
+        if(!event.isEnabled()){
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void end(Object begun){
+        if(begun != null){
+            ((Event) begun).end();
+        }
+    }
+
+    @Override
+    public void parsed(ParseSample sample){
+        if(!(sample.begun instanceof ParseEvent event) || !event.shouldCommit()){ //below the recording's threshold
+            return;
+        }
+        event.parser = sample.parser;
+        event.inputLength = sample.length;
+        event.failed = sample.failed;
+        event.maxDepth = sample.maxDepth;
+        event.nodes = sample.nodeCount();
+        event.closeIndexScans = sample.closeIndexScans;
+        event.substrings = sample.substrings;
+        event.numbers = sample.constructs(Construct.NUMBER);
+        event.variables = sample.constructs(Construct.VARIABLE);
+        event.namedConstants = sample.constructs(Construct.NAMED_CONSTANT);
+        event.parentheses = sample.constructs(Construct.PARENTHESES);
+        event.exponents = sample.constructs(Construct.EXPONENT);
+        event.roots = sample.constructs(Construct.SQRT);
+        event.fractions = sample.constructs(Construct.FRAC);
+        event.integrals = sample.constructs(Construct.INTEGRAL);
+        event.trigFunctions = sample.constructs(Construct.TRIG);
+        event.sums = sample.constructs(Construct.SUM);
+        event.products = sample.constructs(Construct.PRODUCT);
+        event.commit();
+    }
+
+    @Override
+    public void emitted(int length, long nanos, Object begun){
+        if(!(begun instanceof EmitEvent event) || !event.shouldCommit()){
+            return;
+        }
+        event.outputLength = length;
+        event.commit();
+    }
+
+    @Name("latex.Parse")
+    @Label("LaTeX Parse")
+    @Category("LaTeX")
+    @Description("One call to LatexParser or the reference parser")
+    @StackTrace(false)
+    static final class ParseEvent extends Event {
+        @Label("Parser")
+        String parser;
+
+        @Label("Input Length")
+        @Description("Characters")
+        int inputLength;
+
+        @Label("Failed")
+        boolean failed;
+
+        @Label("Max Depth")
+        int maxDepth;
+
+        @Label("Nodes")
+        int nodes;
+
+        @Label("Close Index Scans")
+        long closeIndexScans;
+
+        @Label("Substrings")
+        long substrings;
+
+        @Label("Numbers")
+        int numbers;
+
+        @Label("Variables")
+        int variables;
+
+        @Label("Named Constants")
+        int namedConstants;
+
+        @Label("Parentheses")
+        int parentheses;
+
+        @Label("Exponents")
+        int exponents;
+
+        @Label("Roots")
+        int roots;
+
+        @Label("Fractions")
+        int fractions;
+
+        @Label("Integrals")
+        int integrals;
+
+        @Label("Trig Functions")
+        int trigFunctions;
+
+        @Label("Sums")
+        int sums;
+
+        @Label("Products")
+        int products;
+    }
+
+    @Name("latex.Emit")
+    @Label("LaTeX Emit")
+    @Category("LaTeX")
+    @Description("One call to Expr.toLatex")
+    @StackTrace(false)
+    static final class EmitEvent extends Event {
+        @Label("Output Length")
+        @Description("Characters")
+        int outputLength;
+    }
+}
@@ -2,17 +2,80 @@ import java.util.ArrayList;
 
 public class LatexHelper {
     
-    public static Expr toExpr(String input){
+    public static Expr toExpr(String input){ //converts a Latex expression into an "Expr" expression using LatexParser
+        return LatexParser.parse(input);
+    }
+
+    public static Expr referenceToExpr(String input){ //runs the reference parser, measured when Instrumentation is enabled
+        ParseMetrics metrics = Instrumentation.metrics;
+        if(metrics == null){
+            return parseReference(input);
+        }
+        ParseSample sample = new ParseSample("referenceToExpr", input.length());
+        sample.begun = metrics.beginParse();
+        long start = System.nanoTime();
+        Expr out = null;
+        REFERENCE_SAMPLE.set(sample);
+        try {
+            out = reference(input);
+            return out;
+        } finally {
+            REFERENCE_SAMPLE.remove();
+            Instrumentation.report(metrics, sample, start, out);
+        }
+    }
+
+    private static final ThreadLocal<ParseSample> REFERENCE_SAMPLE = new ThreadLocal<>(); //sample of the instrumented reference parse running on this thread
+
+    private static ParseSample sample(){ //only looks at the thread local while instrumentation is on
+        return Instrumentation.metrics == null ? null : REFERENCE_SAMPLE.get();
+    }
+
+    private static void count(Construct construct){
+        ParseSample sample = sample();
+        if(sample != null){
+            sample.count(construct);
+        }
+    }
+
+    private static String substring(String s, int from){
+        return substring(s, from, s.length());
+    }
+
+    private static String substring(String s, int from, int to){ //all substrings of the reference parser go through here to be counted
+        ParseSample sample = sample();
+        if(sample != null){
+            sample.substrings++;
+        }
+        return s.substring(from, to);
+    }
+
+    private static Expr reference(String input){ //recursive calls of the reference parser, tracking depth when instrumented
+        ParseSample sample = sample();
+        if(sample == null){
+            return parseReference(input);
+        }
+        sample.enter();
+        Expr out = parseReference(input);
+        sample.depth--;
+        return out;
+    }
+
+    private static Expr parseReference(String input){
         /*
+        Original substring based version of toExpr, kept as a reference to check LatexParser against.
         This method converts a Latex expression into an "Expr" expression.
         The order of operations are as follows:
-        1. If there is addition, runs toExpr on the addends and returns a Sum object
+        1. If there is addition, runs referenceToExpr on the addends and returns a Sum object
         2. Otherwise, divides input into expressions:
-            a. identifies any "sub-expressions" and runs toExpr on them before creating the Expr object
+            a. identifies any "sub-expressions" and runs referenceToExpr on them before creating the Expr object
             b. checks to see if the expression has an exponent
         3. if only one expression is found, returns that Expr object. Otherwise, returns a product of all identified expressions
 
         This method assumes that characters are not used to show multiplication or division (x, *, /)
+
+        Known differences from LatexParser: exponents after pi, e, numbers and variables keep their opening "{",
+        and a number at the very end of the input becomes a Variable instead of a Constant.
         */
 
         int layer = 0; //tracks whether at first layer (0) or inside brackets/parentheces (1+)
@@ -23,7 +86,7 @@ public class LatexHelper {
         ArrayList<Expr> addends = new ArrayList<>(); //if addition is found on layer zero, this will be filled with addend expressions and later converted to Sum object
         boolean lastMinus = false;
         for(int i = 0; i < input.length(); i++){
-            String c = input.substring(i, i+1);
+            String c = substring(input, i, i+1);
             
 
             if(c.equals("(") || c.equals("{") || c.equals("[")){
@@ -37,17 +100,17 @@ public class LatexHelper {
 
             if(c.equals("+") && layer == 0){
                 if(lastMinus){
-                    addends.add(toExpr(input.substring(lastPlus, i)));
+                    addends.add(reference(substring(input, lastPlus, i)));
                 } else {
-                    addends.add(toExpr(input.substring(lastPlus+1, i)));
+                    addends.add(reference(substring(input, lastPlus+1, i)));
                 }
                 lastPlus = i;
                 lastMinus = false;
             } else if(c.equals("-") && layer == 0 && i != 0){
                 if(lastMinus){
-                    addends.add(toExpr(input.substring(lastPlus, i)));
+                    addends.add(reference(substring(input, lastPlus, i)));
                 } else {
-                    addends.add(toExpr(input.substring(lastPlus+1, i)));
+                    addends.add(reference(substring(input, lastPlus+1, i)));
                 }
                 lastPlus = i;
                 lastMinus = true;
@@ -55,10 +118,11 @@ public class LatexHelper {
         }
         if(!addends.isEmpty()){
             if(lastMinus){
-                addends.add(toExpr(input.substring(lastPlus)));
+                addends.add(reference(substring(input, lastPlus)));
             } else {
-                addends.add(toExpr(input.substring(lastPlus + 1)));
+                addends.add(reference(substring(input, lastPlus + 1)));
             }
+            count(Construct.SUM);
             return new Sum(addends);
         }
         //checking for addition ends here
@@ -69,15 +133,17 @@ public class LatexHelper {
 
             Expr factor;
 
-            String c = input.substring(i, i+1);
-            String fwd = input.substring(i);
+            String c = substring(input, i, i+1);
+            String fwd = substring(input, i);
 
             if(c.equals("\\")){ //accounts for special expressions beginning with backslash: pi, sqrt, frac, trig (may need to add int later)
 
                 if(fwd.startsWith("\\pi")){ //pi
+                    count(Construct.NAMED_CONSTANT);
                     factor = new Constant("\\pi");
                     if(fwd.contains("^") && fwd.indexOf("^") == 3){
-                        Expr exponent = toExpr(fwd.substring(fwd.indexOf("{"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                        Expr exponent = reference(substring(fwd, fwd.indexOf("{"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                        count(Construct.EXPONENT);
                         factors.add(new Power(factor, exponent));
                         i += closeIndex(fwd, Brackets.CURLY_BRACKETS);
                     } else {
@@ -86,34 +152,38 @@ public class LatexHelper {
                     }
                 }
                 else if(fwd.startsWith("\\sqrt")) { //root
+                    count(Construct.SQRT);
                     if(fwd.contains("[") && fwd.indexOf("[") < fwd.indexOf("{")){ //checks if it is a non-square root (square breackets before argument in curly brackets)
-                        Expr root = toExpr(fwd.substring(fwd.indexOf("[")+1, closeIndex(fwd, Brackets.SQUARE_BRACKETS))); //converts root into expression
-                        Expr base = toExpr(fwd.substring(fwd.indexOf("{")+1, closeIndex(fwd, Brackets.CURLY_BRACKETS))); //converts base value into expression
+                        Expr root = reference(substring(fwd, fwd.indexOf("[")+1, closeIndex(fwd, Brackets.SQUARE_BRACKETS))); //converts root into expression
+                        Expr base = reference(substring(fwd, fwd.indexOf("{")+1, closeIndex(fwd, Brackets.CURLY_BRACKETS))); //converts base value into expression
                         factors.add(new Power(base, root, true)); //creates power object w/ isRoot set to true
                     }
                     else {
-                        Expr base = toExpr(fwd.substring(fwd.indexOf("{")+1, closeIndex(fwd, Brackets.CURLY_BRACKETS))); //converts base value into expression
+                        Expr base = reference(substring(fwd, fwd.indexOf("{")+1, closeIndex(fwd, Brackets.CURLY_BRACKETS))); //converts base value into expression
                         factors.add(new Power(base, new Constant(2.0), true)); //creates power object w/ isRoot set to true
                     }
                     i += closeIndex(fwd, Brackets.CURLY_BRACKETS); // moves index up to the closing of the square root, index will be beginning of next factor once incremented
                 }
                 else if(fwd.startsWith("\\frac")){
+                    count(Construct.FRAC);
                     //System.out.println("FOUND A FRACTION!!");
-                    Expr numerator = toExpr(fwd.substring(fwd.indexOf("{")+1, closeIndex(fwd, Brackets.CURLY_BRACKETS)));
-                    Expr denominator = toExpr(fwd.substring(closeIndex(fwd, Brackets.CURLY_BRACKETS)+2, closeIndex(fwd, Brackets.CURLY_BRACKETS, 2)));
+                    Expr numerator = reference(substring(fwd, fwd.indexOf("{")+1, closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                    Expr denominator = reference(substring(fwd, closeIndex(fwd, Brackets.CURLY_BRACKETS)+2, closeIndex(fwd, Brackets.CURLY_BRACKETS, 2)));
                     //System.out.println(denominator.toLatex());
                     factors.add(new Fraction(numerator, denominator));
                     i += closeIndex(fwd, Brackets.CURLY_BRACKETS, 2); // moves index up to the closing of the fraction, index will be beginning of next factor once incremented
                 }
                 else if(fwd.startsWith("\\int")) { //integral
-                    Expr arg = toExpr(fwd.substring(fwd.indexOf("(")+1, closeIndex(fwd, Brackets.PARENTHECES)));
-                    Variable respectTo = new Variable(fwd.substring(fwd.indexOf("d", closeIndex(fwd, Brackets.PARENTHECES)), fwd.indexOf("d", closeIndex(fwd, Brackets.PARENTHECES))+2));
+                    count(Construct.INTEGRAL);
+                    Expr arg = reference(substring(fwd, fwd.indexOf("(")+1, closeIndex(fwd, Brackets.PARENTHECES)));
+                    Variable respectTo = new Variable(substring(fwd, fwd.indexOf("d", closeIndex(fwd, Brackets.PARENTHECES)), fwd.indexOf("d", closeIndex(fwd, Brackets.PARENTHECES))+2));
                     factors.add(new Integral(arg, respectTo));
                     i += fwd.indexOf("d", closeIndex(fwd, Brackets.PARENTHECES)) + 1;
                 }
                 else { //trig functions
-                    Expr arg = toExpr(fwd.substring(fwd.indexOf("(")+1, closeIndex(fwd, Brackets.PARENTHECES))); //creates expression for function's argument
-                    switch(fwd.substring(1, Math.min(fwd.indexOf("("), fwd.indexOf("^")))){ //determines function type and creates appropriate object
+                    count(Construct.TRIG);
+                    Expr arg = reference(substring(fwd, fwd.indexOf("(")+1, closeIndex(fwd, Brackets.PARENTHECES))); //creates expression for function's argument
+                    switch(substring(fwd, 1, Math.min(fwd.indexOf("("), fwd.indexOf("^")))){ //determines function type and creates appropriate object
                         case "sin" -> factor = new TrigFunc(Trig.SIN, arg);
                         case "cos" -> factor = new TrigFunc(Trig.COS, arg);
                         case "tan" -> factor = new TrigFunc(Trig.TAN, arg);
@@ -127,7 +197,8 @@ public class LatexHelper {
                     }
 
                     if(fwd.contains("^") && fwd.indexOf("^") < fwd.indexOf("(")){ //trig functions are special in their syntax and thus do not go through the standard check for exponents.
-                        Expr exponent = toExpr(fwd.substring(fwd.indexOf("{")+1, closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                        Expr exponent = reference(substring(fwd, fwd.indexOf("{")+1, closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                        count(Construct.EXPONENT);
                         factors.add(new Power(factor, exponent));
                     } else {
                         factors.add(factor);
@@ -138,9 +209,11 @@ public class LatexHelper {
             }
 
             if(endConstantIndex(fwd) != 0){
-                factor = new Constant(Double.parseDouble(fwd.substring(0, endConstantIndex(fwd))));
-                if(fwd.substring(endConstantIndex(fwd), endConstantIndex(fwd)+1).equals("^")){
-                    Expr exponent = toExpr(fwd.substring(fwd.indexOf("{"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                count(Construct.NUMBER);
+                factor = new Constant(Double.parseDouble(substring(fwd, 0, endConstantIndex(fwd))));
+                if(substring(fwd, endConstantIndex(fwd), endConstantIndex(fwd)+1).equals("^")){
+                    Expr exponent = reference(substring(fwd, fwd.indexOf("{"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                    count(Construct.EXPONENT);
                     factors.add(new Power(factor, exponent));
                     i += closeIndex(fwd, Brackets.CURLY_BRACKETS);
                 } else {
@@ -150,9 +223,11 @@ public class LatexHelper {
             } else { //variables and defined constants w/o backslash
                 switch(c){
                     case "e" -> {
+                        count(Construct.NAMED_CONSTANT);
                         factor = new Constant("e");
                         if(fwd.contains("^") && fwd.indexOf("^") == 1){
-                            Expr exponent = toExpr(fwd.substring(fwd.indexOf("{"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                            Expr exponent = reference(substring(fwd, fwd.indexOf("{"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                            count(Construct.EXPONENT);
                             factors.add(new Power(factor, exponent));
                             i += closeIndex(fwd, Brackets.CURLY_BRACKETS);
                         } else {
@@ -161,9 +236,11 @@ public class LatexHelper {
                         }
                     }
                     case "d" -> { //for things like "dx"
-                        factor = new Variable(fwd.substring(0, 2));
+                        count(Construct.VARIABLE);
+                        factor = new Variable(substring(fwd, 0, 2));
                         if(fwd.contains("^") && fwd.indexOf("^") == 2){
-                            Expr exponent = toExpr(fwd.substring(fwd.indexOf("^"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                            Expr exponent = reference(substring(fwd, fwd.indexOf("^"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                            count(Construct.EXPONENT);
                             factors.add(new Power(factor, exponent));
                             i += closeIndex(fwd, Brackets.CURLY_BRACKETS);
                         } else {
@@ -172,9 +249,11 @@ public class LatexHelper {
                         }
                     }
                     default -> { //all variables are single letters
+                        count(Construct.VARIABLE);
                         factor = new Variable(c);
                         if(fwd.contains("^") && fwd.indexOf("^") == 1){
-                            Expr exponent = toExpr(fwd.substring(fwd.indexOf("{"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                            Expr exponent = reference(substring(fwd, fwd.indexOf("{"), closeIndex(fwd, Brackets.CURLY_BRACKETS)));
+                            count(Construct.EXPONENT);
                             factors.add(new Power(factor, exponent));
                             i += closeIndex(fwd, Brackets.CURLY_BRACKETS);
                         } else {
@@ -191,11 +270,18 @@ public class LatexHelper {
         switch(factors.size()){
             case 0 -> {throw new RuntimeException("No expressions found by LatexHelper.toExpr");}
             case 1 -> {return factors.get(0);} //VSC is only satisfied when this is in curly brackets. no clue why
-            default -> {return new Product(factors);}
+            default -> {
+                count(Construct.PRODUCT);
+                return new Product(factors);
+            }
         }
     }
 
     private static int closeIndex(String input, Brackets type){
+        ParseSample sample = sample();
+        if(sample != null){
+            sample.closeIndexScans++;
+        }
         String close;
 
         int layer = 0;
@@ -208,7 +294,7 @@ public class LatexHelper {
         }
 
         for(int i = 0; i < input.length(); i++){
-            String c = input.substring(i, i+1);
+            String c = substring(input, i, i+1);
             
             switch(c){
                 case "(", "[", "{" -> layer++;
@@ -224,6 +310,10 @@ public class LatexHelper {
     }
 
     private static int closeIndex(String input, Brackets type, int num){ //modified version of the method that returns the index of the nth closing
+        ParseSample sample = sample();
+        if(sample != null){
+            sample.closeIndexScans++;
+        }
         String close;
 
         int layer = 0;
@@ -237,7 +327,7 @@ public class LatexHelper {
         }
 
         for(int i = 0; i < input.length(); i++){
-            String c = input.substring(i, i+1);
+            String c = substring(input, i, i+1);
             
             switch(c){
                 case "(", "[", "{" -> layer++;
@@ -258,7 +348,7 @@ public class LatexHelper {
     @SuppressWarnings("UnnecessaryContinue") //to make both the reader and code happy
     private static int endConstantIndex(String input){ //this method is terrible but its the only non-painful way I could think of
         for(int i = 0; i < input.length(); i++){
-            switch(input.substring(i, i+1)){
+            switch(substring(input, i, i+1)){
                 case "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "." -> {continue;}
                 default -> {return i;}
             }
@@ -0,0 +1,164 @@
+class LatexLexer {
+    /*
+    Splits a Latex expression into tokens in a single pass over the original text.
+    Tokens are stored as parallel arrays of kinds and [start, end) index ranges into the source,
+    so no substrings are created while lexing. Whitespace is skipped.
+    */
+
+    final CharSequence src;
+    Token[] kinds = new Token[16];
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    int count = 0;
+
+    private static final String[] ONE_CHAR = new String[128]; //shared single character names so variables don't allocate
+
+    static {
+        for(int c = 0; c < ONE_CHAR.length; c++){
+            ONE_CHAR[c] = String.valueOf((char) c);
+        }
+    }
+
+    LatexLexer(CharSequence src){
+        this(src, 0, src.length());
+    }
+
+    LatexLexer(CharSequence src, int from, int to){ //lexes only the [from, to) range of the source
+        this.src = src;
+        int i = from;
+        while(i < to){
+            char c = src.charAt(i);
+            switch(c){
+                case ' ', '\t', '\n', '\r' -> i++;
+                case '^' -> i = add(Token.CARET, i, i+1);
+                case '+' -> i = add(Token.PLUS, i, i+1);
+                case '-' -> i = add(Token.MINUS, i, i+1);
+                case '(' -> i = add(Token.OPEN_PAREN, i, i+1);
+                case ')' -> i = add(Token.CLOSE_PAREN, i, i+1);
+                case '[' -> i = add(Token.OPEN_SQUARE, i, i+1);
+                case ']' -> i = add(Token.CLOSE_SQUARE, i, i+1);
+                case '{' -> i = add(Token.OPEN_CURLY, i, i+1);
+                case '}' -> i = add(Token.CLOSE_CURLY, i, i+1);
+                case '\\' -> { //commands are a backslash followed by letters, or by a single other character
+                    int j = i + 1;
+                    while(j < to && Character.isLetter(src.charAt(j))){
+                        j++;
+                    }
+                    if(j == i + 1 && j < to){
+                        j++;
+                    }
+                    i = add(Token.COMMAND, i, j);
+                }
+                default -> {
+                    if(isNumberChar(c)){
+                        int j = i + 1;
+                        while(j < to && isNumberChar(src.charAt(j))){
+                            j++;
+                        }
+                        i = add(Token.NUMBER, i, j);
+                    } else {
+                        i = add(Token.CHAR, i, i+1); //all variables are single characters
+                    }
+                }
+            }
+        }
+        add(Token.END, to, to);
+    }
+
+    private int add(Token kind, int start, int end){ //appends a token and returns the index just after it
+        if(count == kinds.length){
+            int size = count * 2;
+            kinds = java.util.Arrays.copyOf(kinds, size);
+            starts = java.util.Arrays.copyOf(starts, size);
+            ends = java.util.Arrays.copyOf(ends, size);
+        }
+        kinds[count] = kind;
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+        return end;
+    }
+
+    static boolean isNumberChar(char c){
+        return (c >= '0' && c <= '9') || c == '.';
+    }
+
+    char firstChar(int tok){
+        return src.charAt(starts[tok]);
+    }
+
+    boolean matches(int tok, String text){ //compares a token's text without copying it out of the source
+        int start = starts[tok];
+        if(ends[tok] - start != text.length()){
+            return false;
+        }
+        for(int i = 0; i < text.length(); i++){
+            if(src.charAt(start + i) != text.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String text(int tok){ //only used for names and error messages, single characters are shared
+        int start = starts[tok];
+        int end = ends[tok];
+        if(end - start == 1 && src.charAt(start) < ONE_CHAR.length){
+            return ONE_CHAR[src.charAt(start)];
+        }
+        return src.subSequence(start, end).toString();
+    }
+
+    static String name(char c){
+        return c < ONE_CHAR.length ? ONE_CHAR[c] : String.valueOf(c);
+    }
+
+    double number(int tok){ //parses a number token, using exact long arithmetic when the digits fit
+        int start = starts[tok];
+        int end = ends[tok];
+        long digits = 0;
+        int numDigits = 0;
+        int dot = -1;
+        for(int i = start; i < end; i++){
+            char c = src.charAt(i);
+            if(c == '.'){
+                if(dot != -1){
+                    throw new NumberFormatException("multiple points in number at position " + start);
+                }
+                dot = i;
+            } else {
+                digits = digits * 10 + (c - '0');
+                numDigits++;
+            }
+        }
+        if(numDigits == 0){
+            throw new NumberFormatException("number without digits at position " + start);
+        }
+        int scale = dot == -1 ? 0 : end - dot - 1;
+        if(numDigits <= 15 && scale < POWERS_OF_TEN.length){ //both values are exact doubles so the division rounds correctly
+            return digits / POWERS_OF_TEN[scale];
+        }
+        return Double.parseDouble(src.subSequence(start, end).toString());
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+}
+
+enum Token { //kinds of tokens produced by LatexLexer
+    NUMBER,
+    CHAR,
+    COMMAND,
+    CARET,
+    PLUS,
+    MINUS,
+    OPEN_PAREN,
+    CLOSE_PAREN,
+    OPEN_SQUARE,
+    CLOSE_SQUARE,
+    OPEN_CURLY,
+    CLOSE_CURLY,
+    END
+}
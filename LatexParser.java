@@ -0,0 +1,401 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class LatexParser {
+    /*
+    Parser that turns the tokens from LatexLexer into an "Expr" expression.
+    Every token is visited once and sub-expressions are parsed in place instead of on copied substrings.
+    The grammar follows the same rules as LatexHelper.referenceToExpr:
+        sum     := product (("+" | "-") product)*       a "-" stays in the next product as a "-" variable factor
+        product := ["-"] factor factor*
+        factor  := number [exp] | char [exp] | "(" sum ")" [exp] | \pi [exp]
+                 | \sqrt ["[" sum "]"] "{" sum "}" | \frac "{" sum "}" "{" sum "}"
+                 | \int "(" sum ")" "d" char | trig [exp] "(" sum ")"
+        exp     := "^" "{" sum "}"
+    A sum or product with only one term is returned as that term.
+    Brackets don't recurse: every open group is a Frame in a list on the heap, and the finished addends and factors
+    of all open groups share one operand list. When a group closes, its sum goes to the Frame's continuation, which
+    builds the node the group belongs to (a power, root, fraction, integral or trig function) or opens the next
+    group of the same construct, so input can be nested as deep as the heap allows on any thread stack.
+    When spans is set, the source range of every node is recorded as a SourceTree.Node for incremental re-parsing.
+    When a cache is set, bracketed groups are looked up before they are parsed and stored once they are.
+    When Instrumentation is enabled, constructs and nesting depth are counted in a ParseSample.
+    Long inputs are split at the top level and parsed in parallel by ParallelParser.
+    */
+
+    private static final Trig[] TRIGS = Trig.values();
+
+    final LatexLexer lex;
+    final BracketTable brackets;
+    ParseCache cache = null; //when set, bracketed sub-expressions are looked up and stored here
+    ParseCache.Source source = null; //prefix hashes of the input for the cache's keys, set with the cache
+    ArrayList<SourceTree.Node> spans = null; //when set, stack of finished spans that each new node adopts its children from, not used with a cache
+    ParseSample sample = null; //set for instrumented parses
+    int pos = 0; //index of the current token
+    private final ArrayList<Expr> operands = new ArrayList<>(); //finished addends and factors of all open groups, innermost last
+
+    LatexParser(LatexLexer lex){ //brackets are matched and checked for balance before parsing starts
+        this(lex, new BracketTable(lex));
+    }
+
+    LatexParser(LatexLexer lex, BracketTable brackets){ //for parsers that share one input, like the tasks of ParallelParser
+        this.lex = lex;
+        this.brackets = brackets;
+    }
+
+    public static Expr parse(CharSequence input){
+        return parse(input, null, null);
+    }
+
+    static Expr parse(CharSequence input, ParseCache cache, ParseCache.Source source){ //source is made from input by the cache
+        ParseMetrics metrics = Instrumentation.metrics;
+        if(metrics != null){
+            return parseInstrumented(input, cache, source, metrics);
+        }
+        LatexParser parser = new LatexParser(new LatexLexer(input));
+        if(cache == null && ParallelParser.applies(parser)){
+            return ParallelParser.parse(parser);
+        }
+        parser.cache = cache;
+        parser.source = source;
+        return parser.parseInput();
+    }
+
+    private static Expr parseInstrumented(CharSequence input, ParseCache cache, ParseCache.Source source, ParseMetrics metrics){
+        ParseSample sample = new ParseSample("LatexParser", input.length());
+        sample.begun = metrics.beginParse();
+        long start = System.nanoTime();
+        Expr out = null;
+        try {
+            LatexParser parser = new LatexParser(new LatexLexer(input));
+            parser.cache = cache;
+            parser.source = source;
+            parser.sample = sample;
+            out = parser.parseInput();
+            return out;
+        } finally {
+            Instrumentation.report(metrics, sample, start, out);
+        }
+    }
+
+    Expr parseInput(){ //the whole input
+        Expr out = parseSum(lex.count - 1);
+        expect(Token.END);
+        return out;
+    }
+
+    Expr parseSum(int end){ //the sum starting at pos, up to token end or the first token that can't continue it
+        Frame top = new Frame(-1, INPUT, null, null, -1, pos, operands.size());
+        parse(top, end, false);
+        return endSum(top);
+    }
+
+    void parseTerms(int end, boolean factors, List<Expr> out){ //the addends, or the factors of one product, from pos up to token end
+        Frame top = new Frame(-1, INPUT, null, null, -1, pos, operands.size());
+        parse(top, end, factors);
+        List<Expr> terms = operands.subList(top.addends, operands.size());
+        out.addAll(terms);
+        terms.clear();
+    }
+
+    Token kind(){
+        return lex.kinds[pos];
+    }
+
+    private void count(Construct construct){
+        if(sample != null){
+            sample.count(construct);
+        }
+    }
+
+    //continuations: what to do with a group's sum once it is closed
+    private static final int INPUT = 0, PAREN = 1, EXPONENT = 2, SQRT_INDEX = 3, SQRT_BASE = 4,
+        FRAC_NUMERATOR = 5, FRAC_DENOMINATOR = 6, INTEGRAL = 7, TRIG_EXPONENT = 8, TRIG_ARGUMENT = 9;
+
+    private static final class Frame { //a bracketed sum being parsed
+        final int open; //token of the opening bracket, -1 for the top level
+        final int then; //continuation
+        final Expr held; //parsed earlier and needed by the continuation: the power base, root index, numerator or trig exponent
+        final Trig func;
+        final int start; //token the construct the group belongs to starts at, for its span
+        final int first; //first token of the sum
+        final int addends; //where this sum's addends start in operands
+        ParseCache.Span key; //set when the group is stored in the cache once it is parsed
+        int factors; //where the current product's factors start
+        int productStart; //token the current product starts at
+
+        Frame(int open, int then, Expr held, Trig func, int start, int first, int addends){
+            this.open = open;
+            this.then = then;
+            this.held = held;
+            this.func = func;
+            this.start = start;
+            this.first = first;
+            this.addends = addends;
+        }
+    }
+
+    private void parse(Frame top, int end, boolean factors){ //runs until top is done, leaving its addends on operands, or its factors if factors is set
+        ArrayList<Frame> open = new ArrayList<>(); //enclosing frames of the current one, innermost last
+        Frame frame = top;
+        beginProduct(frame);
+        while(true){
+            boolean stop = frame == top && pos == end;
+            if(!stop && startsFactor(kind())){
+                Frame inner = startFactor();
+                if(inner != null){
+                    open.add(frame);
+                    frame = inner;
+                }
+                continue;
+            }
+            if(frame == top && factors){
+                return;
+            }
+            endProduct(frame);
+            if(!stop && (kind() == Token.PLUS || kind() == Token.MINUS)){
+                if(kind() == Token.PLUS){
+                    pos++;
+                } //minus signs are left for beginProduct so they become part of the next addend
+                beginProduct(frame);
+                continue;
+            }
+            if(frame == top){
+                return;
+            }
+            Frame next = finish(frame, closeGroup(frame));
+            frame = open.remove(open.size() - 1);
+            if(next != null){
+                open.add(frame);
+                frame = next;
+            }
+        }
+    }
+
+    static boolean startsFactor(Token kind){
+        return kind == Token.NUMBER || kind == Token.CHAR || kind == Token.COMMAND || kind == Token.OPEN_PAREN;
+    }
+
+    private void beginProduct(Frame frame){
+        frame.factors = operands.size();
+        frame.productStart = pos;
+        if(kind() == Token.MINUS){
+            pos++;
+            operands.add(span(new Variable("-"), frame.productStart, 0));
+        }
+    }
+
+    private void endProduct(Frame frame){ //replaces the product's factors with the product
+        int size = operands.size();
+        if(size == frame.factors){
+            throw new RuntimeException("No expressions found at position " + lex.starts[frame.productStart]);
+        }
+        if(size - frame.factors > 1){
+            count(Construct.PRODUCT);
+            List<Expr> factors = operands.subList(frame.factors, size);
+            Product product = span(new Product(factors), frame.productStart, factors.size());
+            factors.clear();
+            operands.add(product);
+        }
+    }
+
+    private Expr endSum(Frame frame){ //takes the sum's addends off operands
+        int size = operands.size();
+        if(size - frame.addends == 1){
+            return operands.remove(size - 1);
+        }
+        count(Construct.SUM);
+        List<Expr> addends = operands.subList(frame.addends, size);
+        Sum sum = span(new Sum(addends), frame.first, addends.size());
+        addends.clear();
+        return sum;
+    }
+
+    private Expr closeGroup(Frame frame){ //takes the group's sum and steps over its closing bracket
+        Expr inner = endSum(frame);
+        int close = brackets.close(frame.open);
+        if(pos != close){ //the sum has to end exactly at its matching bracket
+            throw unexpected(pos);
+        }
+        pos++;
+        if(sample != null){
+            sample.depth--;
+        }
+        if(spans != null){
+            spans.add(SourceTree.Node.adopt(inner, lex.starts[frame.open], lex.ends[close], spans, 1, true));
+        }
+        if(frame.key != null){
+            cache.put(frame.key, inner);
+        }
+        return inner;
+    }
+
+    private Frame startFactor(){ //parses the factor at pos, or opens its first group and returns the group's frame
+        int tok = pos;
+        switch(lex.kinds[tok]){
+            case NUMBER -> {
+                pos++;
+                count(Construct.NUMBER);
+                return factor(span(new Constant(lex.number(tok), lex.text(tok)), tok, 0), tok);
+            }
+            case CHAR -> {
+                pos++;
+                char c = lex.firstChar(tok);
+                if(c == 'e'){
+                    count(Construct.NAMED_CONSTANT);
+                    return factor(span(new Constant("e"), tok, 0), tok);
+                }
+                count(Construct.VARIABLE);
+                if(c == 'd' && isAttachedLetter(pos)){ //for things like "dx"
+                    pos++;
+                    return factor(span(new Variable(lex.src.subSequence(lex.starts[tok], lex.ends[tok+1]).toString()), tok, 0), tok);
+                }
+                return factor(span(new Variable(LatexLexer.name(c)), tok, 0), tok);
+            }
+            case OPEN_PAREN -> {
+                count(Construct.PARENTHESES);
+                return openGroup(Token.OPEN_PAREN, PAREN, null, null, tok);
+            }
+            default -> {
+                return startCommand();
+            }
+        }
+    }
+
+    private Frame startCommand(){
+        int tok = pos++;
+        if(lex.matches(tok, "\\pi")){
+            count(Construct.NAMED_CONSTANT);
+            return factor(span(new Constant("\\pi"), tok, 0), tok);
+        }
+        else if(lex.matches(tok, "\\sqrt")){
+            count(Construct.SQRT);
+            if(kind() == Token.OPEN_SQUARE){
+                return openGroup(Token.OPEN_SQUARE, SQRT_INDEX, null, null, tok);
+            }
+            if(spans != null){
+                spans.add(null); //the implied index has no source
+            }
+            return openGroup(Token.OPEN_CURLY, SQRT_BASE, new Constant(2.0), null, tok);
+        }
+        else if(lex.matches(tok, "\\frac")){
+            count(Construct.FRAC);
+            return openGroup(Token.OPEN_CURLY, FRAC_NUMERATOR, null, null, tok);
+        }
+        else if(lex.matches(tok, "\\int")){
+            count(Construct.INTEGRAL);
+            return openGroup(Token.OPEN_PAREN, INTEGRAL, null, null, tok);
+        }
+
+        for(Trig func : TRIGS){ //trig functions, with the exponent written between the name and the argument
+            if(lex.matches(tok, func.name)){
+                count(Construct.TRIG);
+                if(kind() == Token.CARET){
+                    pos++;
+                    count(Construct.EXPONENT);
+                    return openGroup(Token.OPEN_CURLY, TRIG_EXPONENT, null, func, tok);
+                }
+                return openGroup(Token.OPEN_PAREN, TRIG_ARGUMENT, null, func, tok);
+            }
+        }
+        throw new RuntimeException("unknown command " + lex.text(tok) + " at position " + lex.starts[tok]);
+    }
+
+    private Frame finish(Frame frame, Expr inner){ //runs the continuation of a closed group
+        switch(frame.then){
+            case PAREN -> {return factor(inner, frame.start);}
+            case EXPONENT -> {return add(span(new Power(frame.held, inner), frame.start, 2));}
+            case SQRT_INDEX -> {return openGroup(Token.OPEN_CURLY, SQRT_BASE, inner, null, frame.start);}
+            case SQRT_BASE -> {
+                swapSpans(); //the index is written first but is the second child of the power
+                return add(span(new Power(inner, frame.held, true), frame.start, 2));
+            }
+            case FRAC_NUMERATOR -> {return openGroup(Token.OPEN_CURLY, FRAC_DENOMINATOR, inner, null, frame.start);}
+            case FRAC_DENOMINATOR -> {return add(span(new Fraction(frame.held, inner), frame.start, 2));}
+            case INTEGRAL -> {
+                int d = pos;
+                if(kind() != Token.CHAR || lex.firstChar(d) != 'd' || !isAttachedLetter(d+1)){
+                    throw new RuntimeException("expected differential after integral at position " + lex.starts[d]);
+                }
+                pos += 2;
+                Variable respectTo = span(new Variable(lex.src.subSequence(lex.starts[d], lex.ends[d+1]).toString()), d, 0);
+                return add(span(new Integral(inner, respectTo), frame.start, 2));
+            }
+            case TRIG_EXPONENT -> {return openGroup(Token.OPEN_PAREN, TRIG_ARGUMENT, inner, frame.func, frame.start);}
+            default -> {
+                TrigFunc trig = span(new TrigFunc(frame.func, inner), frame.held == null ? frame.start : frame.open, 1);
+                if(frame.held == null){
+                    return add(trig);
+                }
+                swapSpans(); //the exponent is written first but is the second child of the power
+                return add(span(new Power(trig, frame.held), frame.start, 2));
+            }
+        }
+    }
+
+    private Frame factor(Expr factor, int start){ //adds a factor starting at token start, or opens its exponent if one follows
+        if(kind() == Token.CARET){
+            pos++;
+            count(Construct.EXPONENT);
+            return openGroup(Token.OPEN_CURLY, EXPONENT, factor, null, start);
+        }
+        return add(factor);
+    }
+
+    private Frame add(Expr factor){ //adds a finished factor that can't take an exponent
+        operands.add(factor);
+        return null;
+    }
+
+    private Frame openGroup(Token open, int then, Expr held, Trig func, int start){ //opens the group at pos, or runs its continuation on a cached sum
+        int tok = pos;
+        expect(open);
+        Frame frame = new Frame(tok, then, held, func, start, pos, operands.size());
+        int close = brackets.close(tok);
+        if(cache != null && lex.starts[close] - lex.ends[tok] >= ParseCache.MIN_LENGTH){
+            frame.key = source.span(lex.ends[tok], lex.starts[close]);
+            Expr cached = cache.get(frame.key);
+            if(cached != null){
+                pos = close + 1;
+                return finish(frame, cached);
+            }
+        }
+        if(sample != null){
+            sample.enter();
+        }
+        beginProduct(frame);
+        return frame;
+    }
+
+    <T extends Expr> T span(T expr, int start, int children){ //records expr as running from token start to the last consumed token
+        if(spans != null){
+            spans.add(SourceTree.Node.adopt(expr, lex.starts[start], lex.ends[pos-1], spans, children, false));
+        }
+        return expr;
+    }
+
+    private void swapSpans(){ //swaps the two newest spans, for children written in a different order than they are stored
+        if(spans != null){
+            int last = spans.size() - 1;
+            spans.set(last, spans.set(last - 1, spans.get(last)));
+        }
+    }
+
+    private boolean isAttachedLetter(int tok){ //checks if the token is a letter written directly after the previous token
+        return lex.kinds[tok] == Token.CHAR && lex.starts[tok] == lex.ends[tok-1] && Character.isLetter(lex.firstChar(tok));
+    }
+
+    void expect(Token kind){
+        if(kind() != kind){
+            throw unexpected(pos);
+        }
+        pos++;
+    }
+
+    RuntimeException unexpected(int tok){
+        if(lex.kinds[tok] == Token.END){
+            return new RuntimeException("unexpected end of expression at position " + lex.starts[tok]);
+        }
+        return new RuntimeException("unexpected " + lex.text(tok) + " at position " + lex.starts[tok]);
+    }
+}
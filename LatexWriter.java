@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+final class LatexWriter {
+    /*
+    Writes the latex of an expression without letting the thread stack grow with the nesting depth.
+    Each node lists its output through writeParts. While nothing has been deferred yet, text goes straight out and
+    children are written in place by calling their writeParts, down to MAX_INLINE_DEPTH levels. A child below that
+    is pushed onto an explicit stack instead, and so is everything listed after it, since it has to come out later.
+    Once the node popped last is done, the parts it deferred are reversed so they are popped in output order.
+    The stack holds Exprs, Strings and Characters, and only grows with the parts still waiting on each deferred level.
+    */
+
+    static final int MAX_INLINE_DEPTH = 64; //levels written by plain calls before parts go onto the stack
+    private static final Object[] EMPTY = {};
+
+    private final Appendable out;
+    private Object[] stack = EMPTY; //allocated once something is deferred
+    private int size = 0;
+    private int mark; //stack size when the current node was popped, nothing is deferred while size == mark
+    private int level; //inline calls below the popped node
+
+    private LatexWriter(Appendable out){
+        this.out = out;
+    }
+
+    static void write(Expr expr, Appendable out) throws IOException {
+        LatexWriter writer = new LatexWriter(out);
+        writer.expand(expr);
+        while(writer.size > 0){
+            Object next = writer.stack[--writer.size];
+            writer.stack[writer.size] = null;
+            if(next instanceof Expr child){
+                writer.expand(child);
+            } else if(next instanceof Character c){
+                out.append(c);
+            } else {
+                out.append((String) next);
+            }
+        }
+    }
+
+    private void expand(Expr expr) throws IOException {
+        mark = size;
+        level = 0;
+        expr.writeParts(this);
+        for(int i = mark, j = size - 1; i < j; i++, j--){ //deferred in output order, reversed to pop the first one first
+            Object tmp = stack[i];
+            stack[i] = stack[j];
+            stack[j] = tmp;
+        }
+    }
+
+    void text(String text) throws IOException {
+        if(size == mark){
+            out.append(text);
+        } else {
+            push(text);
+        }
+    }
+
+    void text(char c) throws IOException {
+        if(size == mark){
+            out.append(c);
+        } else {
+            push(c);
+        }
+    }
+
+    void child(Expr child) throws IOException { //kept small so the JIT inlines it into every writeParts
+        if(size == mark && level < MAX_INLINE_DEPTH){
+            inline(child);
+        } else {
+            push(child);
+        }
+    }
+
+    private void inline(Expr child) throws IOException {
+        if(child instanceof Variable variable){ //leaves get call sites of their own, so the JIT can inline them
+            variable.writeParts(this);
+        }
+        else if(child instanceof Constant constant){
+            constant.writeParts(this);
+        }
+        else {
+            level++;
+            child.writeParts(this);
+            level--;
+        }
+    }
+
+    private void push(Object part){
+        if(size == stack.length){
+            stack = Arrays.copyOf(stack, Math.max(16, size * 2));
+        }
+        stack[size++] = part;
+    }
+}
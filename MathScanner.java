@@ -0,0 +1,319 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+public class MathScanner {
+    /*
+    Finds the math segments of a .tex file ($...$, $$...$$, \(...\) and \[...\]) and parses each one with LatexParser.
+    The file is memory mapped in windows of WINDOW bytes and searched 8 bytes at a time for the bytes that can start
+    a delimiter, an escape or a comment, so most of the text is never looked at byte by byte.
+    Segments are handed to the parser as CharSequence views over the mapped bytes, without copying them into Strings.
+    They are parsed in blocks on virtual threads while scanning goes on, like RoundTripBatch, with at most MAX_IN_FLIGHT
+    blocks waiting, and results go to the consumer in file order with the file offsets of each segment's content.
+    Bytes are read as ISO-8859-1, which is exact for the ASCII that math is written in.
+    Text mode follows the basic TeX rules: a backslash escapes the next character (so \$ and \\[ aren't delimiters)
+    and % starts a comment that runs to the end of the line.
+    */
+
+    static final int WINDOW = 1 << 28; //bytes mapped at once, a segment can't be longer than this
+    static final int BLOCK_SIZE = 256; //segments per parsing task
+    static final int MAX_IN_FLIGHT = 64;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long DOLLARS = '$' * ONES;
+    private static final long BACKSLASHES = '\\' * ONES;
+    private static final long PERCENTS = '%' * ONES;
+    private static final long NEWLINES = '\n' * ONES;
+
+    private static final int TEXT = 0, INLINE = 1, DISPLAY = 2, PAREN = 3, SQUARE = 4; //scanner modes, one per delimiter
+
+    private final Consumer<Segment> out;
+    private final ExecutorService workers;
+    private final ArrayDeque<Future<Segment[]>> pending = new ArrayDeque<>();
+    private Segment[] block = new Segment[BLOCK_SIZE]; //segments found but not yet handed to a worker
+    private int blockCount = 0;
+    private long segments = 0;
+
+    private int mode; //state of the window being scanned
+    private int open; //offset in the window of the opening delimiter of the current segment
+    private int contentStart;
+
+    private MathScanner(Consumer<Segment> out, ExecutorService workers){
+        this.out = out;
+        this.workers = workers;
+    }
+
+    public static long scan(Path file, Consumer<Segment> out) throws IOException { //returns the number of segments found
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()){
+            MathScanner scanner = new MathScanner(out, workers);
+            long size = channel.size();
+            long pos = 0;
+            while(pos < size){
+                long length = Math.min(WINDOW, size - pos);
+                boolean last = pos + length == size;
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, length).order(ByteOrder.LITTLE_ENDIAN);
+                int resume = scanner.scanWindow(window, pos, last);
+                if(last){
+                    break;
+                }
+                if(resume == 0){ //nothing finished in a whole window: a segment or comment is too long
+                    if(scanner.mode == TEXT){
+                        resume = (int) length;
+                    } else {
+                        scanner.report(window, pos, scanner.open, (int) length, "math segment longer than " + WINDOW + " bytes");
+                        resume = scanner.contentStart;
+                    }
+                }
+                pos += resume;
+            }
+            scanner.submit();
+            while(!scanner.pending.isEmpty()){
+                scanner.deliver();
+            }
+            return scanner.segments;
+        }
+    }
+
+    public static void run(String file) throws IOException { //prints one line per segment, and a summary to stderr
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        long[] errors = {0};
+        long start = System.nanoTime();
+        long count = scan(Path.of(file), segment -> {
+            try {
+                writer.append(Long.toString(segment.start)).append('\t').append(Long.toString(segment.end)).append('\t');
+                if(segment.error == null){
+                    writer.append("ok\n");
+                } else {
+                    writer.append("error\t").append(segment.error).append('\n');
+                    errors[0]++;
+                }
+            } catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.flush();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println("segments: " + count);
+        System.err.println("parse errors: " + errors[0]);
+        System.err.printf("time: %.3f s%n", seconds);
+    }
+
+    private int scanWindow(ByteBuffer buf, long base, boolean last) throws IOException { //returns where the next window has to start
+        int n = buf.limit();
+        int i = 0;
+        mode = TEXT;
+        while(true){
+            if(mode == TEXT){
+                i = find(buf, i, n, DOLLARS, BACKSLASHES, PERCENTS);
+                if(i == n){
+                    return n;
+                }
+                byte c = buf.get(i);
+                if(c == '%'){
+                    int end = find(buf, i + 1, n, NEWLINES, NEWLINES, NEWLINES);
+                    if(end == n && !last){
+                        return i;
+                    }
+                    i = end;
+                    continue;
+                }
+                if(i + 1 == n && !last){ //the delimiter might continue in the next window
+                    return i;
+                }
+                byte next = i + 1 < n ? buf.get(i + 1) : 0;
+                open = i;
+                if(c == '$'){
+                    mode = next == '$' ? DISPLAY : INLINE;
+                    i += mode == DISPLAY ? 2 : 1;
+                } else if(next == '(' || next == '['){
+                    mode = next == '(' ? PAREN : SQUARE;
+                    i += 2;
+                } else {
+                    i += 2; //escaped character
+                    continue;
+                }
+                contentStart = i;
+            } else {
+                i = find(buf, i, n, DOLLARS, BACKSLASHES, BACKSLASHES);
+                if(i + 1 >= n && !last){ //the segment or its closing delimiter continues in the next window
+                    return open;
+                }
+                if(i >= n){
+                    report(buf, base, open, n, "unclosed math segment");
+                    return n;
+                }
+                byte c = buf.get(i);
+                byte next = i + 1 < n ? buf.get(i + 1) : 0;
+                int end = i;
+                if(c == '$' && mode == INLINE){
+                    i += 1;
+                } else if(c == '$' && mode == DISPLAY && next == '$'){
+                    i += 2;
+                } else if(c == '\\' && (mode == PAREN && next == ')' || mode == SQUARE && next == ']')){
+                    i += 2;
+                } else {
+                    i += c == '\\' ? 2 : 1; //escapes like \$ and \\, and dollars that don't close this kind of segment
+                    continue;
+                }
+                emit(buf, base, end);
+                mode = TEXT;
+            }
+        }
+    }
+
+    private void emit(ByteBuffer buf, long base, int end) throws IOException { //queues the segment for parsing
+        add(new Segment(base + contentStart, base + end, buf.get(open), new Chars(buf, contentStart, end), null, null));
+    }
+
+    private void report(ByteBuffer buf, long base, int from, int end, String error) throws IOException {
+        add(new Segment(base + contentStart, base + end, buf.get(from), new Chars(buf, contentStart, end), null, error));
+    }
+
+    private void add(Segment segment) throws IOException {
+        segments++;
+        block[blockCount++] = segment;
+        if(blockCount == BLOCK_SIZE){
+            submit();
+            if(pending.size() >= MAX_IN_FLIGHT){ //backpressure: wait for the oldest block before scanning on
+                deliver();
+            }
+        }
+    }
+
+    private void submit(){
+        if(blockCount == 0){
+            return;
+        }
+        Segment[] found = blockCount == BLOCK_SIZE ? block : Arrays.copyOf(block, blockCount);
+        pending.add(workers.submit(() -> parseAll(found)));
+        block = new Segment[BLOCK_SIZE];
+        blockCount = 0;
+    }
+
+    private static Segment[] parseAll(Segment[] found){
+        for(int i = 0; i < found.length; i++){
+            Segment segment = found[i];
+            if(segment.error != null){ //reported by the scanner, nothing to parse
+                continue;
+            }
+            try {
+                found[i] = segment.with(LatexParser.parse(segment.text), null);
+            } catch(RuntimeException e){
+                found[i] = segment.with(null, e.getMessage());
+            }
+        }
+        return found;
+    }
+
+    private void deliver() throws IOException {
+        Segment[] found;
+        try {
+            found = pending.poll().get();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for results", e);
+        } catch(ExecutionException e){
+            throw new IOException("worker failed", e.getCause());
+        }
+        for(Segment segment : found){
+            out.accept(segment);
+        }
+    }
+
+    private static int find(ByteBuffer buf, int i, int n, long a, long b, long c){ //index of the first byte matching any of the three patterns, or n
+        while(i + 8 <= n){ //a byte of x ^ pattern is zero where the byte matches, found with the usual has-zero-byte trick
+            long word = buf.getLong(i);
+            long found = zeroBytes(word ^ a) | zeroBytes(word ^ b) | zeroBytes(word ^ c);
+            if(found != 0){
+                return i + (Long.numberOfTrailingZeros(found) >>> 3); //little endian, so the lowest byte comes first
+            }
+            i += 8;
+        }
+        byte ba = (byte) a, bb = (byte) b, bc = (byte) c;
+        while(i < n){
+            byte x = buf.get(i);
+            if(x == ba || x == bb || x == bc){
+                return i;
+            }
+            i++;
+        }
+        return n;
+    }
+
+    private static long zeroBytes(long x){ //high bit set in the lowest zero byte, higher bytes may have false positives
+        return (x - ONES) & ~x & HIGHS;
+    }
+
+    public static final class Segment {
+        public final long start; //file offset of the first byte of the content, after the opening delimiter
+        public final long end; //file offset of the closing delimiter
+        public final char delimiter; //'$' for $ and $$, '\\' for \( and \[
+        public final CharSequence text; //view of the mapped file, keeps the window mapped while referenced
+        public final Expr expr; //null if the segment didn't parse
+        public final String error;
+
+        Segment(long start, long end, byte delimiter, CharSequence text, Expr expr, String error){
+            this.start = start;
+            this.end = end;
+            this.delimiter = (char) delimiter;
+            this.text = text;
+            this.expr = expr;
+            this.error = error;
+        }
+
+        private Segment with(Expr expr, String error){
+            return new Segment(start, end, (byte) delimiter, text, expr, error);
+        }
+    }
+
+    static final class Chars implements CharSequence { //ISO-8859-1 characters of a range of a byte buffer, without copying
+        private final ByteBuffer buf;
+        private final int start;
+        private final int end;
+
+        Chars(ByteBuffer buf, int start, int end){
+            this.buf = buf;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length(){
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index){
+            return (char) (buf.get(start + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to){
+            return new Chars(buf, start + from, start + to);
+        }
+
+        @Override
+        public String toString(){
+            byte[] bytes = new byte[end - start];
+            buf.get(start, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+final class ParallelParser {
+    /*
+    Parses very long inputs in pieces on the common fork/join pool.
+    The top level of the input is found by skipping every bracketed group with the BracketTable, and split at the
+    "+" and "-" tokens between addends. Runs of about CHUNK_TOKENS tokens worth of addends are parsed by separate tasks,
+    each with its own LatexParser over the shared lexer and bracket table, which are only read.
+    When the whole input is one product, it is split before factors that start with a number or a command instead,
+    since no factor can take one of those from the top level as part of itself.
+    The pieces are joined in input order, so the result is the same Sum or Product the sequential parser gives,
+    and the error thrown is the first one in the input, like the sequential parser's.
+    Inputs under MIN_TOKENS, parses with a cache or instrumentation, and machines with one core use the sequential parser.
+    */
+
+    static final int MIN_TOKENS = 1 << 14;
+    static final int CHUNK_TOKENS = 1 << 12; //tokens per task, not yet tuned against ParseBenchmark.sequentialToExpr
+
+    static boolean applies(LatexParser parser){
+        return parser.lex.count >= MIN_TOKENS && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    static Expr parse(LatexParser parser){ //falls back to the sequential parser when the top level can't be split
+        LatexLexer lex = parser.lex;
+        BracketTable brackets = parser.brackets;
+        int end = lex.count - 1; //the END token
+        int[] cuts = new int[64]; //first token of each addend after the first
+        int cutCount = 0;
+        int[] factors = new int[64]; //top level numbers and commands
+        int factorCount = 0;
+        int signs = 0;
+        for(int tok = 0; tok < end; tok++){
+            switch(lex.kinds[tok]){
+                case OPEN_PAREN, OPEN_SQUARE, OPEN_CURLY -> tok = brackets.close(tok);
+                case PLUS, MINUS -> {
+                    signs++;
+                    Token before = tok == 0 ? null : lex.kinds[tok-1];
+                    if(before != null && before != Token.PLUS && before != Token.MINUS){ //a sign right after another one starts its addend
+                        if(cutCount == cuts.length){
+                            cuts = Arrays.copyOf(cuts, cutCount * 2);
+                        }
+                        cuts[cutCount++] = tok;
+                    }
+                }
+                case NUMBER, COMMAND -> {
+                    if(tok > 0){
+                        if(factorCount == factors.length){
+                            factors = Arrays.copyOf(factors, factorCount * 2);
+                        }
+                        factors[factorCount++] = tok;
+                    }
+                }
+                default -> {continue;}
+            }
+        }
+
+        boolean addends = cutCount > 0;
+        if(!addends && !(signs == 0 || signs == 1 && lex.kinds[0] == Token.MINUS)){ //only signs at the start, like "-+x"
+            return parser.parseInput();
+        }
+        int[] bounds = addends ? cuts : factors;
+        int boundCount = addends ? cutCount : factorCount;
+
+        ArrayList<Chunk> chunks = new ArrayList<>();
+        int start = 0;
+        for(int i = 0; i < boundCount; i++){
+            if(bounds[i] - start >= CHUNK_TOKENS){
+                chunks.add(new Chunk(new LatexParser(lex, brackets), start, bounds[i], addends));
+                start = bounds[i];
+            }
+        }
+        if(chunks.isEmpty()){
+            return parser.parseInput();
+        }
+        chunks.add(new Chunk(new LatexParser(lex, brackets), start, end, addends));
+        ForkJoinTask.invokeAll(chunks);
+
+        ArrayList<Expr> terms = new ArrayList<>();
+        for(Chunk chunk : chunks){
+            if(chunk.error != null){
+                throw chunk.error;
+            }
+            terms.addAll(chunk.terms);
+        }
+        if(terms.size() == 1){
+            return terms.get(0);
+        }
+        return addends ? new Sum(terms) : new Product(terms);
+    }
+
+    @SuppressWarnings("serial") //never serialized
+    private static final class Chunk extends RecursiveAction { //the addends or factors from token from up to token to
+        private final LatexParser parser;
+        private final int from;
+        private final int to;
+        private final boolean addends;
+        final ArrayList<Expr> terms = new ArrayList<>();
+        RuntimeException error; //kept instead of thrown, so join doesn't wrap it and change the message
+
+        Chunk(LatexParser parser, int from, int to, boolean addends){
+            this.parser = parser;
+            this.from = from;
+            this.to = to;
+            this.addends = addends;
+        }
+
+        @Override
+        protected void compute(){
+            try {
+                parser.pos = from;
+                if(addends && from > 0 && parser.kind() == Token.PLUS){ //the sign between two chunks
+                    parser.pos++;
+                }
+                parser.parseTerms(to, !addends, terms);
+                if(parser.pos != to){ //stopped early, where the sequential parser would fail at the end of its sum
+                    throw parser.unexpected(parser.pos);
+                }
+            } catch(RuntimeException e){
+                error = e;
+            }
+        }
+    }
+}
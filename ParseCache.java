@@ -0,0 +1,194 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ParseCache {
+    /*
+    Bounded, thread safe cache from Latex source text to parsed expressions.
+    The cache is split into segments by hash, each a LinkedHashMap in access order that drops its least recently
+    used entry when full, so threads working on different strings rarely wait on the same lock.
+    LatexParser also checks the cache for bracketed sub-expressions (exponents, arguments, fraction parts)
+    at least MIN_LENGTH characters long. Keys are ranges of the parsed input, compared by content. Their hashes come
+    from a Source, which hashes every prefix of the input once per parse, so a lookup costs the same at any depth
+    and the text is only compared when the hashes match. parse works on a String copy of its input, so editing a
+    StringBuilder after its parse can't change keys already in the cache. Keys are ranges of that String, not copies
+    of their own, so storing nested groups stays linear in the input and an entry keeps its input's text alive.
+    Expr nodes are immutable, so cached expressions are shared as is.
+    */
+
+    static final int MIN_LENGTH = 16; //shorter sub-expressions are cheaper to parse than to look up
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ParseCache(int capacity){
+        if(capacity <= 0){
+            throw new IllegalArgumentException("cache capacity has to be positive");
+        }
+        int count = Math.min(MAX_SEGMENTS, capacity);
+        segments = new Segment[count];
+        for(int i = 0; i < count; i++){
+            segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+        }
+    }
+
+    public Expr parse(CharSequence input){ //parses the whole input, using and filling the cache at every level
+        String text = input.toString(); //the same object for a String, a copy that can't change for anything else
+        Source source = new Source(text);
+        Span key = source.span(0, text.length());
+        Expr cached = get(key);
+        if(cached != null){
+            return cached;
+        }
+        Expr out = LatexParser.parse(text, this, source);
+        put(key, out);
+        return out;
+    }
+
+    Expr get(Span key){
+        Segment segment = segmentFor(key);
+        Expr out;
+        synchronized(segment){
+            out = segment.get(key);
+        }
+        if(out == null){
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return out;
+    }
+
+    void put(Span key, Expr expr){
+        Segment segment = segmentFor(key);
+        synchronized(segment){
+            segment.put(key, expr);
+        }
+    }
+
+    private Segment segmentFor(Span key){
+        int h = key.hash ^ (key.hash >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    public long hits(){
+        return hits.sum();
+    }
+
+    public long misses(){
+        return misses.sum();
+    }
+
+    public long evictions(){
+        return evictions.sum();
+    }
+
+    public int size(){
+        int size = 0;
+        for(Segment segment : segments){
+            synchronized(segment){
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear(){
+        for(Segment segment : segments){
+            synchronized(segment){
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public String toString(){
+        return "ParseCache[size=" + size() + ", hits=" + hits() + ", misses=" + misses() + ", evictions=" + evictions() + "]";
+    }
+
+    @SuppressWarnings("serial")
+    private final class Segment extends LinkedHashMap<Span, Expr> {
+        private final int capacity;
+
+        Segment(int capacity){
+            super(16, 0.75f, true); //access order, so the eldest entry is the least recently used
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Span, Expr> eldest){
+            if(size() > capacity){
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    static final class Source { //an input and the hash of each of its prefixes, so any range is hashed in O(1)
+        final CharSequence text;
+        private final int[] prefixes; //prefixes[i] is the String hash of the first i characters
+
+        Source(CharSequence text){
+            this.text = text;
+            prefixes = new int[text.length() + 1];
+            for(int i = 0; i < text.length(); i++){
+                prefixes[i+1] = 31 * prefixes[i] + text.charAt(i);
+            }
+        }
+
+        Span span(int start, int end){ //hashed like text.subSequence(start, end).toString(), all in int arithmetic
+            return new Span(text, start, end, prefixes[end] - prefixes[start] * pow31(end - start));
+        }
+
+        private static int pow31(int n){
+            int out = 1;
+            int base = 31;
+            for(; n > 0; n >>= 1){
+                if((n & 1) != 0){
+                    out *= base;
+                }
+                base *= base;
+            }
+            return out;
+        }
+    }
+
+    static final class Span { //a range of characters compared by content, hashed like the equivalent String
+        final CharSequence src;
+        final int start;
+        final int end;
+        final int hash;
+
+        private Span(CharSequence src, int start, int end, int hash){
+            this.src = src;
+            this.start = start;
+            this.end = end;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(this == o){
+                return true;
+            }
+            if(!(o instanceof Span other) || other.hash != hash || other.end - other.start != end - start){
+                return false;
+            }
+            for(int i = 0; i < end - start; i++){
+                if(src.charAt(start + i) != other.src.charAt(other.start + i)){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
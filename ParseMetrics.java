@@ -0,0 +1,118 @@
+public interface ParseMetrics {
+    /*
+    Receives measurements from instrumented parses and emits, once Instrumentation.enable has been called.
+    parsed is called once per LatexHelper.toExpr / LatexParser.parse or referenceToExpr call, with everything
+    counted during that parse, and emitted once per Expr.toLatex call. Calls come from the parsing threads,
+    so implementations have to be thread safe. ParseStats collects totals and histograms, JfrParseMetrics
+    turns each call into a Flight Recorder event.
+    beginParse and beginEmit are called on the same thread right before the work starts, and end right after it
+    stops, before the result's nodes are counted. What begin returns is handed to end and kept in the sample or passed
+    to emitted, for implementations that time the work themselves.
+    */
+    void parsed(ParseSample sample);
+
+    void emitted(int length, long nanos, Object begun);
+
+    default Object beginParse(){
+        return null;
+    }
+
+    default Object beginEmit(){
+        return null;
+    }
+
+    default void end(Object begun){}
+}
+
+enum Construct { //what the parsers count, one counter each
+    NUMBER,
+    VARIABLE,
+    NAMED_CONSTANT, //\pi and e
+    PARENTHESES,
+    EXPONENT,
+    SQRT,
+    FRAC,
+    INTEGRAL,
+    TRIG,
+    SUM,
+    PRODUCT
+}
+
+final class ParseSample {
+    /*
+    Counts for one parse. The parser fills it in while running and hands it to ParseMetrics at the end,
+    after which it isn't changed anymore.
+    */
+
+    static final String[] NODE_TYPES = {"Constant", "Variable", "Sum", "Product", "Power", "Fraction", "TrigFunc", "Integral"};
+    private static final Construct[] CONSTRUCTS = Construct.values();
+
+    final String parser; //which parser ran, "LatexParser" or "referenceToExpr"
+    final int length; //input length in characters
+    long nanos;
+    Object begun; //what ParseMetrics.beginParse returned for this parse
+    boolean failed;
+    int depth = 0; //current bracket nesting (recursion depth for the reference parser)
+    int maxDepth = 0;
+    final int[] constructs = new int[CONSTRUCTS.length];
+    final int[] nodes = new int[NODE_TYPES.length]; //nodes in the result by Expr subclass, in NODE_TYPES order
+    long closeIndexScans = 0; //bracket searches that rescan the input, only done by the reference parser
+    long substrings = 0; //substrings allocated, only by the reference parser
+
+    ParseSample(String parser, int length){
+        this.parser = parser;
+        this.length = length;
+    }
+
+    void count(Construct construct){
+        constructs[construct.ordinal()]++;
+    }
+
+    void enter(){
+        depth++;
+        if(depth > maxDepth){
+            maxDepth = depth;
+        }
+    }
+
+    void countNodes(Expr expr){
+        Traversal.preOrder(expr, node -> nodes[nodeType(node)]++);
+    }
+
+    private static int nodeType(Expr expr){ //index into NODE_TYPES
+        if(expr instanceof Constant){
+            return 0;
+        }
+        else if(expr instanceof Variable){
+            return 1;
+        }
+        else if(expr instanceof Sum){
+            return 2;
+        }
+        else if(expr instanceof Product){
+            return 3;
+        }
+        else if(expr instanceof Power){
+            return 4;
+        }
+        else if(expr instanceof Fraction){
+            return 5;
+        }
+        else if(expr instanceof TrigFunc){
+            return 6;
+        }
+        return 7;
+    }
+
+    int constructs(Construct construct){
+        return constructs[construct.ordinal()];
+    }
+
+    int nodeCount(){
+        int total = 0;
+        for(int n : nodes){
+            total += n;
+        }
+        return total;
+    }
+}
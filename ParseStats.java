@@ -0,0 +1,133 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ParseStats implements ParseMetrics {
+    /*
+    ParseMetrics that adds everything up, for printing after a run.
+    Keeps totals per construct and per node type, and histograms with power of two buckets:
+    parse latency by input length, maximum nesting depth, and emit latency by output length.
+    All counters are LongAdders, so parsing threads don't contend on them.
+    */
+
+    static final int BUCKETS = 32; //bucket i holds values from 2^(i-1) to 2^i - 1, bucket 0 holds zero
+
+    private final LongAdder parses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder[] constructs = adders(Construct.values().length);
+    private final LongAdder[] nodes = adders(ParseSample.NODE_TYPES.length);
+    private final LongAdder closeIndexScans = new LongAdder();
+    private final LongAdder substrings = new LongAdder();
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] depths = adders(BUCKETS); //parses by maximum depth
+    private final LongAdder[] parsesBySize = adders(BUCKETS); //parses by input length
+    private final LongAdder[] parseNanosBySize = adders(BUCKETS);
+    private final LongAdder[] emitsBySize = adders(BUCKETS); //toLatex calls by output length
+    private final LongAdder[] emitNanosBySize = adders(BUCKETS);
+
+    private static LongAdder[] adders(int count){
+        LongAdder[] out = new LongAdder[count];
+        for(int i = 0; i < count; i++){
+            out[i] = new LongAdder();
+        }
+        return out;
+    }
+
+    static int bucket(long value){
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    @Override
+    public void parsed(ParseSample sample){
+        parses.increment();
+        if(sample.failed){
+            failures.increment();
+        }
+        for(int i = 0; i < sample.constructs.length; i++){
+            if(sample.constructs[i] != 0){
+                constructs[i].add(sample.constructs[i]);
+            }
+        }
+        for(int i = 0; i < sample.nodes.length; i++){
+            if(sample.nodes[i] != 0){
+                nodes[i].add(sample.nodes[i]);
+            }
+        }
+        closeIndexScans.add(sample.closeIndexScans);
+        substrings.add(sample.substrings);
+        maxDepth.accumulate(sample.maxDepth);
+        depths[bucket(sample.maxDepth)].increment();
+        int size = bucket(sample.length);
+        parsesBySize[size].increment();
+        parseNanosBySize[size].add(sample.nanos);
+    }
+
+    @Override
+    public void emitted(int length, long nanos, Object begun){
+        int size = bucket(length);
+        emitsBySize[size].increment();
+        emitNanosBySize[size].add(nanos);
+    }
+
+    public long parses(){
+        return parses.sum();
+    }
+
+    public long count(Construct construct){
+        return constructs[construct.ordinal()].sum();
+    }
+
+    public long maxDepth(){
+        return maxDepth.get();
+    }
+
+    public void reset(){
+        for(LongAdder[] group : new LongAdder[][]{constructs, nodes, depths, parsesBySize, parseNanosBySize, emitsBySize, emitNanosBySize}){
+            for(LongAdder adder : group){
+                adder.reset();
+            }
+        }
+        parses.reset();
+        failures.reset();
+        closeIndexScans.reset();
+        substrings.reset();
+        maxDepth.reset();
+    }
+
+    @Override
+    public String toString(){ //report of everything counted so far
+        StringBuilder out = new StringBuilder();
+        out.append("parses: ").append(parses.sum()).append(" (").append(failures.sum()).append(" failed)\n");
+        out.append("close index scans: ").append(closeIndexScans.sum()).append(", substrings: ").append(substrings.sum()).append('\n');
+        out.append("max depth: ").append(maxDepth.get()).append('\n');
+        out.append("constructs:\n");
+        Construct[] names = Construct.values();
+        for(int i = 0; i < names.length; i++){
+            out.append(String.format("  %-16s %12d%n", names[i].name().toLowerCase(), constructs[i].sum()));
+        }
+        out.append("nodes:\n");
+        for(int i = 0; i < nodes.length; i++){
+            out.append(String.format("  %-16s %12d%n", ParseSample.NODE_TYPES[i], nodes[i].sum()));
+        }
+        histogram(out, "parses by max depth", depths, null);
+        histogram(out, "parse latency by input length", parsesBySize, parseNanosBySize);
+        histogram(out, "emit latency by output length", emitsBySize, emitNanosBySize);
+        return out.toString();
+    }
+
+    private static void histogram(StringBuilder out, String title, LongAdder[] counts, LongAdder[] nanos){
+        out.append(title).append(":\n");
+        for(int i = 0; i < BUCKETS; i++){
+            long count = counts[i].sum();
+            if(count == 0){
+                continue;
+            }
+            long low = i == 0 ? 0 : 1L << (i - 1);
+            long high = i == 0 ? 0 : (1L << i) - 1;
+            out.append(String.format("  %8d-%-8d %12d", low, high, count));
+            if(nanos != null){
+                out.append(String.format(" %14.1f ns avg", nanos[i].sum() / (double) count));
+            }
+            out.append('\n');
+        }
+    }
+}
@@ -0,0 +1,524 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+public class Polynomial {
+    /*
+    Sparse normal form for polynomial expressions: sums and products of numbers, variables and named constants
+    like \pi and e, with whole non-negative exponents and constant denominators.
+    Every term is a monomial key and a double coefficient. The key packs the exponent of each symbol into its own
+    FIELD_BITS bit field of one long, the first symbol in the highest field, so multiplying monomials is adding keys
+    and comparing keys as numbers orders them lexicographically. The top bit of every field is kept clear, so an
+    exponent over MAX_EXPONENT shows up as a set guard bit instead of carrying into the next symbol.
+    Terms live in an open addressing map over parallel long[] and double[] arrays, so adding, multiplying and
+    expanding allocate no object per term. Terms that cancel keep their slot with a zero coefficient and are skipped.
+    Symbols are sorted by name, variables before named constants, so no \pi is written right before a letter
+    (Product writes its factors without spaces, and \pix wouldn't parse back). Operands with different symbols are
+    repacked to the union of both first.
+    toExpr builds the canonical tree: terms by falling total degree and then by key, each one a Product of the
+    coefficient and the symbols' powers in symbol order, with a leading "-" factor like the parser reads.
+    Polynomials are equal when they have the same terms with exactly the same coefficients.
+    */
+
+    static final int MAX_SYMBOLS = 8;
+    static final int FIELD_BITS = 8;
+    static final int MAX_EXPONENT = 127;
+    private static final long GUARDS = 0x8080808080808080L; //top bit of every field
+    private static final Comparator<Expr> ORDER = Comparator.comparing((Expr e) -> e instanceof Constant).thenComparing(e -> e.name);
+    private static final Expr[] NO_SYMBOLS = {};
+
+    private final Expr[] symbols; //Variable and named Constant leaves, sorted by ORDER
+    private final TermMap terms;
+
+    private Polynomial(Expr[] symbols, TermMap terms){
+        this.symbols = symbols;
+        this.terms = terms;
+    }
+
+    public static Polynomial constant(double value){
+        TermMap terms = new TermMap(1);
+        terms.add(0, value);
+        return new Polynomial(NO_SYMBOLS, terms);
+    }
+
+    public static Polynomial of(Expr expr){ //throws IllegalArgumentException if expr isn't a polynomial
+        Expr[] symbols = symbolsOf(expr);
+        ArrayList<Polynomial> done = new ArrayList<>(); //converted children waiting for their parent
+        Traversal.postOrder(expr, node -> {
+            List<Polynomial> children = done.subList(done.size() - node.childCount(), done.size());
+            Polynomial out = convert(node, symbols, children);
+            children.clear();
+            done.add(out);
+        });
+        return done.get(0);
+    }
+
+    public static Expr expand(Expr expr){
+        return of(expr).toExpr();
+    }
+
+    private static Expr[] symbolsOf(Expr expr){
+        HashSet<Expr> found = new HashSet<>();
+        Traversal.preOrder(expr, node -> {
+            if(node instanceof TrigFunc){
+                throw new IllegalArgumentException("trig functions can't be part of a polynomial");
+            }
+            else if(node instanceof Integral){
+                throw new IllegalArgumentException("integrals can't be part of a polynomial");
+            }
+            else if(node instanceof Power power && power.isRoot){
+                throw new IllegalArgumentException("roots can't be part of a polynomial");
+            }
+            else if(isSymbol(node)){
+                found.add(node);
+            }
+        });
+        if(found.size() > MAX_SYMBOLS){
+            throw new IllegalArgumentException("polynomial has " + found.size() + " symbols, at most " + MAX_SYMBOLS + " fit in a key");
+        }
+        Expr[] symbols = found.toArray(new Expr[0]);
+        Arrays.sort(symbols, ORDER);
+        return symbols;
+    }
+
+    private static boolean isSymbol(Expr node){ //numbers keep the text they were written as, named constants have a name instead
+        if(node instanceof Variable){
+            return !node.isMinusSign();
+        }
+        if(!(node instanceof Constant)){
+            return false;
+        }
+        if(node.num == null){
+            return true;
+        }
+        if(node.name == null || Double.isNaN(node.num) || Double.isInfinite(node.num)){
+            return false;
+        }
+        char c = node.name.charAt(0);
+        return c == '\\' || Character.isLetter(c);
+    }
+
+    private static Polynomial convert(Expr node, Expr[] symbols, List<Polynomial> children){
+        if(isSymbol(node)){
+            TermMap terms = new TermMap(1);
+            terms.add(1L << shift(Arrays.binarySearch(symbols, node, ORDER)), 1);
+            return new Polynomial(symbols, terms);
+        }
+        else if(node.isMinusSign()){
+            return constant(-1).repack(symbols);
+        }
+        else if(node instanceof Constant){
+            return constant(node.num).repack(symbols);
+        }
+        else if(node instanceof Sum){
+            int size = 0;
+            for(Polynomial child : children){
+                size += child.terms.used;
+            }
+            TermMap terms = new TermMap(size);
+            for(Polynomial child : children){
+                terms.addAll(child.terms);
+            }
+            return new Polynomial(symbols, terms);
+        }
+        else if(node instanceof Product){
+            Polynomial out = children.get(0);
+            for(int i = 1; i < children.size(); i++){
+                out = out.multiply(children.get(i));
+            }
+            return out;
+        }
+        else if(node instanceof Power){
+            double exponent = children.get(1).constantValue("exponent");
+            if(exponent != Math.rint(exponent) || exponent < 0 || exponent > MAX_EXPONENT){
+                throw new IllegalArgumentException("exponent " + exponent + " isn't a whole number from 0 to " + MAX_EXPONENT);
+            }
+            return children.get(0).pow((int) exponent);
+        }
+        else if(node instanceof Fraction){
+            double denominator = children.get(1).constantValue("denominator");
+            if(denominator == 0){
+                throw new IllegalArgumentException("denominator is zero");
+            }
+            return children.get(0).scale(1 / denominator);
+        }
+        throw new IllegalArgumentException(node.getClass().getSimpleName() + " can't be part of a polynomial");
+    }
+
+    private double constantValue(String what){ //the value of a polynomial without symbols
+        double value = 0;
+        for(int i = 0; i < terms.keys.length; i++){
+            if(terms.holds(i)){
+                if(terms.keys[i] != 0){
+                    throw new IllegalArgumentException(what + " has to be a number");
+                }
+                value = terms.coefficients[i];
+            }
+        }
+        return value;
+    }
+
+    public Polynomial add(Polynomial other){
+        Expr[] union = union(symbols, other.symbols);
+        TermMap out = repack(union).terms.copy(terms.used + other.terms.used);
+        out.addAll(other.repack(union).terms);
+        return new Polynomial(union, out);
+    }
+
+    public Polynomial subtract(Polynomial other){
+        return add(other.scale(-1));
+    }
+
+    public Polynomial scale(double factor){
+        TermMap out = new TermMap(terms.used);
+        for(int i = 0; i < terms.keys.length; i++){
+            if(terms.holds(i)){
+                out.add(terms.keys[i], terms.coefficients[i] * factor);
+            }
+        }
+        return new Polynomial(symbols, out);
+    }
+
+    public Polynomial multiply(Polynomial other){
+        Expr[] union = union(symbols, other.symbols);
+        TermMap a = repack(union).terms;
+        TermMap b = other.repack(union).terms;
+        TermMap out = new TermMap(a.used + b.used); //grows as needed, sizing for a.used * b.used would mostly be empty slots and cache misses
+        for(int i = 0; i < a.keys.length; i++){
+            if(!a.holds(i)){
+                continue;
+            }
+            long key = a.keys[i];
+            double coefficient = a.coefficients[i];
+            for(int j = 0; j < b.keys.length; j++){
+                if(b.holds(j)){
+                    long product = key + b.keys[j]; //fields are at most MAX_EXPONENT, so their sums can't carry into the next one
+                    if((product & GUARDS) != 0){
+                        throw tooHigh();
+                    }
+                    out.add(product, coefficient * b.coefficients[j]);
+                }
+            }
+        }
+        return new Polynomial(union, out);
+    }
+
+    public Polynomial pow(int exponent){ //by repeated squaring
+        if(exponent < 0){
+            throw new IllegalArgumentException("negative exponent " + exponent);
+        }
+        long highest = 0; //highest exponent of any symbol
+        for(int i = 0; i < terms.keys.length; i++){
+            if(terms.holds(i)){
+                for(int s = 0; s < symbols.length; s++){
+                    highest = Math.max(highest, exponent(terms.keys[i], s));
+                }
+            }
+        }
+        if(highest * exponent > MAX_EXPONENT){ //fail before expanding instead of on the last multiplication
+            throw tooHigh();
+        }
+        Polynomial out = constant(1).repack(symbols);
+        Polynomial square = this;
+        while(exponent > 0){
+            if((exponent & 1) != 0){
+                out = out.multiply(square);
+            }
+            exponent >>= 1;
+            if(exponent > 0){
+                square = square.multiply(square);
+            }
+        }
+        return out;
+    }
+
+    public int termCount(){
+        int count = 0;
+        for(int i = 0; i < terms.keys.length; i++){
+            if(terms.holds(i)){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int degree(){ //total degree of the highest term, 0 for constants and the zero polynomial
+        int degree = 0;
+        for(int i = 0; i < terms.keys.length; i++){
+            if(terms.holds(i)){
+                degree = Math.max(degree, degree(terms.keys[i]));
+            }
+        }
+        return degree;
+    }
+
+    public Expr toExpr(){
+        long[] keys = new long[termCount()];
+        int count = 0;
+        for(int i = 0; i < terms.keys.length; i++){
+            if(terms.holds(i)){
+                keys[count++] = terms.keys[i];
+            }
+        }
+        if(count == 0){
+            return Simplifier.number(0);
+        }
+        Arrays.sort(keys); //keys have no sign bit, so this is lexicographic order, reversed below
+
+        int maxDegree = symbols.length * MAX_EXPONENT;
+        int[] starts = new int[maxDegree + 2]; //counting sort by falling degree, stable so keys stay falling within a degree
+        for(long key : keys){
+            starts[maxDegree - degree(key) + 1]++;
+        }
+        for(int d = 1; d < starts.length; d++){
+            starts[d] += starts[d-1];
+        }
+        long[] ordered = new long[count];
+        for(int i = count - 1; i >= 0; i--){
+            ordered[starts[maxDegree - degree(keys[i])]++] = keys[i];
+        }
+
+        ArrayList<Expr> addends = new ArrayList<>(count);
+        for(long key : ordered){
+            addends.add(term(key, terms.get(key)));
+        }
+        return addends.size() == 1 ? addends.get(0) : new Sum(addends);
+    }
+
+    private Expr term(long key, double coefficient){
+        ArrayList<Expr> factors = new ArrayList<>();
+        if(coefficient < 0){
+            factors.add(new Variable("-"));
+            coefficient = -coefficient;
+        }
+        if(coefficient != 1 || key == 0){
+            factors.add(Simplifier.number(coefficient));
+        }
+        for(int s = 0; s < symbols.length; s++){
+            int exponent = exponent(key, s);
+            if(exponent == 1){
+                factors.add(symbols[s]);
+            }
+            else if(exponent > 1){
+                factors.add(new Power(symbols[s], Simplifier.number(exponent)));
+            }
+        }
+        return factors.size() == 1 ? factors.get(0) : new Product(factors);
+    }
+
+    private Polynomial repack(Expr[] target){ //the same terms with keys laid out for target, which holds every symbol of this
+        if(target == symbols || Arrays.equals(target, symbols)){
+            return target == symbols ? this : new Polynomial(target, terms);
+        }
+        if(target.length > MAX_SYMBOLS){
+            throw new IllegalArgumentException("polynomial has " + target.length + " symbols, at most " + MAX_SYMBOLS + " fit in a key");
+        }
+        int[] moved = new int[symbols.length]; //new slot of every symbol
+        for(int s = 0; s < symbols.length; s++){
+            moved[s] = Arrays.binarySearch(target, symbols[s], ORDER);
+        }
+        TermMap out = new TermMap(terms.used);
+        for(int i = 0; i < terms.keys.length; i++){
+            if(terms.holds(i)){
+                long key = 0;
+                for(int s = 0; s < symbols.length; s++){
+                    key |= (long) exponent(terms.keys[i], s) << shift(moved[s]);
+                }
+                out.add(key, terms.coefficients[i]);
+            }
+        }
+        return new Polynomial(target, out);
+    }
+
+    private static Expr[] union(Expr[] a, Expr[] b){
+        if(a == b || Arrays.equals(a, b) || b.length == 0){
+            return a;
+        }
+        if(a.length == 0){
+            return b;
+        }
+        ArrayList<Expr> out = new ArrayList<>(a.length + b.length);
+        int i = 0;
+        int j = 0;
+        while(i < a.length || j < b.length){
+            int c = i == a.length ? 1 : j == b.length ? -1 : ORDER.compare(a[i], b[j]);
+            if(c < 0){
+                out.add(a[i++]);
+            }
+            else if(c > 0){
+                out.add(b[j++]);
+            }
+            else {
+                out.add(a[i++]);
+                j++;
+            }
+        }
+        return out.toArray(new Expr[0]);
+    }
+
+    private static int shift(int symbol){ //the first symbol gets the highest field
+        return (MAX_SYMBOLS - 1 - symbol) * FIELD_BITS;
+    }
+
+    private static int exponent(long key, int symbol){
+        return (int) (key >>> shift(symbol)) & ((1 << FIELD_BITS) - 1);
+    }
+
+    private static int degree(long key){
+        int degree = 0;
+        for(int s = 0; s < MAX_SYMBOLS; s++){
+            degree += exponent(key, s);
+        }
+        return degree;
+    }
+
+    private static RuntimeException tooHigh(){
+        return new RuntimeException("exponent over " + MAX_EXPONENT + ", the largest a key can hold");
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(!(o instanceof Polynomial other)){
+            return false;
+        }
+        if(termCount() != other.termCount()){
+            return false;
+        }
+        for(int i = 0; i < terms.keys.length; i++){
+            if(!terms.holds(i)){
+                continue;
+            }
+            long key = 0; //the same monomial in other's layout
+            for(int s = 0; s < symbols.length; s++){
+                int exponent = exponent(terms.keys[i], s);
+                if(exponent != 0){
+                    int slot = Arrays.binarySearch(other.symbols, symbols[s], ORDER);
+                    if(slot < 0){
+                        return false;
+                    }
+                    key |= (long) exponent << shift(slot);
+                }
+            }
+            if(terms.coefficients[i] != other.terms.get(key)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode(){ //sum over the terms, so it doesn't depend on slot order or on which symbols are unused
+        int hash = 0;
+        for(int i = 0; i < terms.keys.length; i++){
+            if(terms.holds(i)){
+                int term = Double.hashCode(terms.coefficients[i] + 0.0); //+ 0.0 turns -0.0 into 0.0
+                for(int s = 0; s < symbols.length; s++){
+                    int exponent = exponent(terms.keys[i], s);
+                    if(exponent != 0){
+                        term = term * 31 + (symbols[s].hashCode() ^ exponent * 0x9E3779B9);
+                    }
+                }
+                hash += term;
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString(){
+        return toExpr().toLatex();
+    }
+
+    private static final class TermMap { //open addressing with linear probing over parallel arrays
+        static final long EMPTY = -1; //has every guard bit set, so it is never a key
+
+        long[] keys;
+        double[] coefficients;
+        int used; //occupied slots, including ones whose terms cancelled
+        private int shift; //64 minus log2 of the capacity, for the hash
+
+        TermMap(int expected){
+            int capacity = 8;
+            while(capacity < expected * 2L && capacity < 1 << 30){ //at most half full
+                capacity <<= 1;
+            }
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity){
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            coefficients = new double[capacity];
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+            used = 0;
+        }
+
+        boolean holds(int slot){ //slot has a term that didn't cancel
+            return keys[slot] != EMPTY && coefficients[slot] != 0;
+        }
+
+        private int slot(long key){
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        void add(long key, double coefficient){
+            int mask = keys.length - 1;
+            for(int i = slot(key); ; i = (i + 1) & mask){
+                if(keys[i] == key){
+                    coefficients[i] += coefficient;
+                    return;
+                }
+                if(keys[i] == EMPTY){
+                    if(coefficient == 0){
+                        return;
+                    }
+                    keys[i] = key;
+                    coefficients[i] = coefficient;
+                    if(++used * 2 > keys.length){
+                        grow();
+                    }
+                    return;
+                }
+            }
+        }
+
+        double get(long key){
+            int mask = keys.length - 1;
+            for(int i = slot(key); ; i = (i + 1) & mask){
+                if(keys[i] == key){
+                    return coefficients[i];
+                }
+                if(keys[i] == EMPTY){
+                    return 0;
+                }
+            }
+        }
+
+        void addAll(TermMap other){
+            for(int i = 0; i < other.keys.length; i++){
+                if(other.holds(i)){
+                    add(other.keys[i], other.coefficients[i]);
+                }
+            }
+        }
+
+        TermMap copy(int expected){
+            TermMap out = new TermMap(Math.max(expected, used));
+            out.addAll(this);
+            return out;
+        }
+
+        private void grow(){ //drops cancelled terms on the way
+            long[] oldKeys = keys;
+            double[] oldCoefficients = coefficients;
+            allocate(keys.length * 2);
+            for(int i = 0; i < oldKeys.length; i++){
+                if(oldKeys[i] != EMPTY && oldCoefficients[i] != 0){
+                    add(oldKeys[i], oldCoefficients[i]);
+                }
+            }
+        }
+    }
+}
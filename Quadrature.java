@@ -0,0 +1,149 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Quadrature {
+    /*
+    Definite integrals of Integral nodes by adaptive Simpson quadrature.
+    The integrand is Integral.arg compiled with ExprCompiler, as a function of the variable named by respectTo (dx -> x).
+    Each interval is split in half until the two half estimates agree with the whole one within the interval's share
+    of the tolerance. The first SPLIT_DEPTH levels of halves are fork/join tasks, so the work spreads across cores,
+    and deeper intervals are refined sequentially in the task that owns them.
+    All tasks draw from one evaluation budget. Once it is spent, intervals stop being refined and the result is
+    marked as not converged, with the error estimate reached so far.
+    */
+
+    static final int SPLIT_DEPTH = 10; //up to 2^10 parallel tasks, deeper intervals are too small to be worth forking
+    static final int MAX_DEPTH = 50; //intervals narrower than this run out of double precision anyway
+
+    private final Evaluator integrand;
+    private final AtomicLong evaluations = new AtomicLong();
+    private final long budget;
+
+    private Quadrature(Evaluator integrand, long budget){
+        this.integrand = integrand;
+        this.budget = budget;
+    }
+
+    public static Result integrate(Integral integral, double from, double to, double tolerance, long budget){
+        String name = integral.respectTo.name;
+        if(name.length() < 2 || name.charAt(0) != 'd'){
+            throw new IllegalArgumentException("integral is with respect to " + name + ", not a differential");
+        }
+        if(!(tolerance > 0)){
+            throw new IllegalArgumentException("tolerance has to be positive");
+        }
+        if(budget < 5){
+            throw new IllegalArgumentException("evaluation budget has to be at least 5");
+        }
+        if(from == to){
+            return new Result(0, 0, 0, true);
+        }
+        Quadrature quadrature = new Quadrature(ExprCompiler.compile(integral.arg, name.substring(1)), budget);
+        double[] x = new double[1];
+        double fa = quadrature.eval(x, from);
+        double fm = quadrature.eval(x, (from + to) / 2);
+        double fb = quadrature.eval(x, to);
+        quadrature.evaluations.set(3);
+        Interval whole = quadrature.new Interval(from, to, fa, fm, fb, simpson(from, to, fa, fm, fb), tolerance, 0);
+        Piece piece = ForkJoinPool.commonPool().invoke(whole);
+        return new Result(piece.value, piece.error, quadrature.evaluations.get(), piece.converged);
+    }
+
+    private double eval(double[] x, double at){
+        x[0] = at;
+        return integrand.eval(x);
+    }
+
+    private static double simpson(double a, double b, double fa, double fm, double fb){
+        return (b - a) / 6 * (fa + 4 * fm + fb);
+    }
+
+    @SuppressWarnings("serial")
+    private final class Interval extends RecursiveTask<Piece> {
+        private final double a, b, fa, fm, fb, whole, tolerance;
+        private final int depth;
+        private final double[] x = new double[1]; //evaluation slot owned by this task
+
+        Interval(double a, double b, double fa, double fm, double fb, double whole, double tolerance, int depth){
+            this.a = a;
+            this.b = b;
+            this.fa = fa;
+            this.fm = fm;
+            this.fb = fb;
+            this.whole = whole;
+            this.tolerance = tolerance;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Piece compute(){
+            return refine(a, b, fa, fm, fb, whole, tolerance, depth);
+        }
+
+        private Piece refine(double a, double b, double fa, double fm, double fb, double whole, double tolerance, int depth){
+            double m = (a + b) / 2;
+            if(evaluations.getAndAdd(2) + 2 > budget){ //no budget left for the two quarter points
+                evaluations.getAndAdd(-2);
+                return new Piece(whole, Double.POSITIVE_INFINITY, false);
+            }
+            double lm = (a + m) / 2;
+            double rm = (m + b) / 2;
+            double flm = eval(x, lm);
+            double frm = eval(x, rm);
+            double left = simpson(a, m, fa, flm, fm);
+            double right = simpson(m, b, fm, frm, fb);
+            double delta = left + right - whole;
+            if(Math.abs(delta) <= 15 * tolerance || depth >= MAX_DEPTH){ //Richardson extrapolation of the two estimates
+                return new Piece(left + right + delta / 15, Math.abs(delta) / 15, Math.abs(delta) <= 15 * tolerance);
+            }
+            if(depth < SPLIT_DEPTH){
+                Interval leftTask = new Interval(a, m, fa, flm, fm, left, tolerance / 2, depth + 1);
+                leftTask.fork();
+                Piece rightPiece = new Interval(m, b, fm, frm, fb, right, tolerance / 2, depth + 1).compute();
+                return leftTask.join().plus(rightPiece, left + right, delta);
+            }
+            Piece leftPiece = refine(a, m, fa, flm, fm, left, tolerance / 2, depth + 1);
+            Piece rightPiece = refine(m, b, fm, frm, fb, right, tolerance / 2, depth + 1);
+            return leftPiece.plus(rightPiece, left + right, delta);
+        }
+    }
+
+    private static final class Piece { //integral over one interval and its error estimate
+        final double value;
+        final double error;
+        final boolean converged;
+
+        Piece(double value, double error, boolean converged){
+            this.value = value;
+            this.error = error;
+            this.converged = converged;
+        }
+
+        Piece plus(Piece other, double estimate, double delta){ //if the budget cut off either half, falls back to the parent's estimate
+            if(Double.isInfinite(error) || Double.isInfinite(other.error)){
+                return new Piece(estimate + delta / 15, Math.abs(delta) / 15, false);
+            }
+            return new Piece(value + other.value, error + other.error, converged && other.converged);
+        }
+    }
+
+    public static final class Result {
+        public final double value;
+        public final double error; //estimated absolute error
+        public final long evaluations; //integrand evaluations spent
+        public final boolean converged; //false if the budget ran out or an interval got too narrow before reaching the tolerance
+
+        Result(double value, double error, long evaluations, boolean converged){
+            this.value = value;
+            this.error = error;
+            this.evaluations = evaluations;
+            this.converged = converged;
+        }
+
+        @Override
+        public String toString(){
+            return value + " (error " + error + ", " + evaluations + " evaluations" + (converged ? ")" : ", not converged)");
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RoundTripBatch {
+    /*
+    Batch version of Main: reads newline separated Latex expressions, parses and re-emits each one,
+    and writes "true"/"false" (whether toLatex gives back the input) and the emitted latex, tab separated, one line per input.
+    Lines that fail to parse are written as "error" and the message. A line that overflows the stack is written the same
+    way, so one bad input doesn't stop the batch. Any other Error ends the run, since the JVM may not be usable after it.
+    Lines are handed out in blocks to virtual threads. At most MAX_IN_FLIGHT blocks are queued at once, so a fast reader
+    can't run ahead of the workers, and results are written in input order as the oldest block finishes.
+    A summary with throughput, round trip failures and the first parse errors goes to stderr at the end.
+    */
+
+    static final int BLOCK_SIZE = 256; //lines per task
+    static final int MAX_IN_FLIGHT = 64; //blocks waiting to be written before the reader blocks
+    static final int MAX_REPORTED_ERRORS = 20;
+
+    private long lines = 0;
+    private long failures = 0;
+    private long errors = 0;
+    private final ArrayList<String> reportedErrors = new ArrayList<>();
+
+    public static void run(String file) throws IOException { //reads from the file, or stdin if file is null
+        BufferedReader in = file == null
+            ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+            : Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        long start = System.nanoTime();
+        RoundTripBatch batch = new RoundTripBatch();
+        try(in; ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()){
+            batch.process(in, out, workers);
+        }
+        out.flush();
+        batch.printSummary(System.nanoTime() - start);
+    }
+
+    void process(BufferedReader in, Writer out, ExecutorService workers) throws IOException {
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+        long lineNumber = 1;
+        String[] lineBlock = new String[BLOCK_SIZE];
+        int count = 0;
+        String line;
+        while((line = in.readLine()) != null){
+            lineBlock[count++] = line;
+            if(count == BLOCK_SIZE){
+                Block block = new Block(lineNumber, lineBlock, count);
+                pending.add(workers.submit(block::run));
+                lineNumber += count;
+                lineBlock = new String[BLOCK_SIZE];
+                count = 0;
+                if(pending.size() >= MAX_IN_FLIGHT){ //backpressure: wait for the oldest block before reading on
+                    write(pending.poll(), out);
+                }
+            }
+        }
+        if(count > 0){
+            Block block = new Block(lineNumber, lineBlock, count);
+            pending.add(workers.submit(block::run));
+        }
+        while(!pending.isEmpty()){
+            write(pending.poll(), out);
+        }
+    }
+
+    private void write(Future<Block> future, Writer out) throws IOException {
+        Block block;
+        try {
+            block = future.get();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for results", e);
+        } catch(ExecutionException e){
+            throw new IOException("worker failed", e.getCause());
+        }
+        out.append(block.results);
+        lines += block.count;
+        failures += block.failures;
+        errors += block.errors;
+        for(String error : block.errorMessages){
+            if(reportedErrors.size() < MAX_REPORTED_ERRORS){
+                reportedErrors.add(error);
+            }
+        }
+    }
+
+    void printSummary(long nanos){
+        double seconds = nanos / 1e9;
+        System.err.println("lines: " + lines);
+        System.err.printf("time: %.3f s (%.0f lines/s)%n", seconds, lines / Math.max(seconds, 1e-9));
+        System.err.println("round trip failures: " + failures);
+        System.err.println("parse errors: " + errors);
+        for(String error : reportedErrors){
+            System.err.println("  " + error);
+        }
+        if(errors > reportedErrors.size()){
+            System.err.println("  ... " + (errors - reportedErrors.size()) + " more");
+        }
+    }
+
+    private static final class Block { //a run of input lines and, once run, their output
+        final long firstLine;
+        final String[] lines;
+        final int count;
+        final StringBuilder results = new StringBuilder();
+        final ArrayList<String> errorMessages = new ArrayList<>();
+        int failures = 0;
+        int errors = 0;
+
+        Block(long firstLine, String[] lines, int count){
+            this.firstLine = firstLine;
+            this.lines = lines;
+            this.count = count;
+        }
+
+        Block run(){
+            for(int i = 0; i < count; i++){
+                String latex = lines[i];
+                int start = results.length();
+                try {
+                    Expr expr = LatexHelper.toExpr(latex);
+                    results.append("true\t");
+                    expr.writeLatex(results);
+                    if(!sameText(results, start + 5, latex)){
+                        results.replace(start, start + 4, "false");
+                        failures++;
+                    }
+                } catch(IOException e){
+                    throw new IllegalStateException(e); //StringBuilder doesn't throw
+                } catch(RuntimeException | StackOverflowError e){
+                    String message = e instanceof RuntimeException ? e.getMessage() : e.toString(); //a stack overflow has no message
+                    results.setLength(start); //drops anything written before the error
+                    results.append("error\t").append(message);
+                    errors++;
+                    if(errorMessages.size() < MAX_REPORTED_ERRORS){
+                        errorMessages.add("line " + (firstLine + i) + ": " + message);
+                    }
+                }
+                results.append('\n');
+                lines[i] = null;
+            }
+            return this;
+        }
+
+        private static boolean sameText(StringBuilder results, int from, String latex){ //compares without copying the output
+            if(results.length() - from != latex.length()){
+                return false;
+            }
+            for(int i = 0; i < latex.length(); i++){
+                if(results.charAt(from + i) != latex.charAt(i)){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
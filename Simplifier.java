@@ -0,0 +1,214 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+public class Simplifier {
+    /*
+    Simplifies an expression in one bottom-up pass:
+    1. constant subtrees (sums, products, powers, roots, fractions and trig functions of constants) are folded into one number
+    2. nested sums and products are flattened into their parent
+    3. numeric factors and minus signs of a product are merged into one coefficient written first,
+       and the numeric addends of a sum into one number written last
+    4. trivial cases like x^{1}, x^{0}, \frac{x}{1} and products with a zero factor are removed
+    Each node's constness is cached in the node when it is built, and results are memoized per node,
+    so shared subtrees are only simplified once and the pass stays linear in the number of distinct nodes.
+    Children are simplified before their parents from an explicit stack, so any depth that fits in the heap works.
+    Named constants like \pi and e are folded too, since the result is meant for evaluation.
+    Folds that don't give a finite number, like \frac{0}{0} or \sqrt{-1}, are left as they are written.
+    */
+
+    private final IdentityHashMap<Expr, Expr> done = new IdentityHashMap<>();
+
+    public static Expr simplify(Expr expr){
+        return new Simplifier().visit(expr);
+    }
+
+    Expr visit(Expr expr){ //simplifies every child before its parent, walking with a stack instead of recursing
+        ArrayList<Expr> stack = new ArrayList<>();
+        stack.add(expr);
+        while(!stack.isEmpty()){
+            Expr node = stack.get(stack.size() - 1);
+            if(done.containsKey(node)){
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            int waiting = stack.size();
+            for(int i = node.childCount() - 1; i >= 0; i--){
+                if(!done.containsKey(node.child(i))){
+                    stack.add(node.child(i));
+                }
+            }
+            if(stack.size() == waiting){ //all of its children are done
+                stack.remove(waiting - 1);
+                done.put(node, simplifyNode(node));
+            }
+        }
+        return done.get(expr);
+    }
+
+    private Expr simplified(Expr child){ //the result for a child, which visit has always worked out already
+        return done.get(child);
+    }
+
+    private Expr simplifyNode(Expr expr){
+        if(expr instanceof Constant || expr instanceof Variable){
+            return expr;
+        }
+        else if(expr instanceof Sum sum){
+            return sum(sum);
+        }
+        else if(expr instanceof Product product){
+            return product(product);
+        }
+        else if(expr instanceof Power power){
+            return power(simplified(power.base), simplified(power.exponent), power.isRoot);
+        }
+        else if(expr instanceof Fraction fraction){
+            return fraction(simplified(fraction.numerator), simplified(fraction.denominator));
+        }
+        else if(expr instanceof TrigFunc trig){
+            Expr arg = simplified(trig.val);
+            if(isNumber(arg) && Double.isFinite(trig.func.apply(arg.num))){
+                return number(trig.func.apply(arg.num));
+            }
+            return arg == trig.val ? trig : new TrigFunc(trig.func, arg);
+        }
+        else if(expr instanceof Integral integral){
+            Expr arg = simplified(integral.arg);
+            return arg == integral.arg ? integral : new Integral(arg, integral.respectTo);
+        }
+        return expr;
+    }
+
+    private Expr sum(Sum sum){
+        ArrayList<Expr> terms = new ArrayList<>();
+        ArrayList<Expr> numbers = new ArrayList<>();
+        double constant = 0;
+        for(Expr addend : sum.addends){
+            Expr term = simplified(addend);
+            if(term instanceof Sum inner){ //inner sums are already simplified, so their terms can be taken as they are
+                for(Expr innerTerm : inner.addends){
+                    if(isNumber(innerTerm)){
+                        constant += innerTerm.num;
+                        numbers.add(innerTerm);
+                    } else {
+                        terms.add(innerTerm);
+                    }
+                }
+            } else if(isNumber(term)){
+                constant += term.num;
+                numbers.add(term);
+            } else {
+                terms.add(term);
+            }
+        }
+        if(!Double.isFinite(constant)){ //the numbers overflow when added, so they are kept apart
+            terms.addAll(numbers);
+            return terms.size() == 1 ? terms.get(0) : new Sum(terms);
+        }
+        if(terms.isEmpty()){
+            return number(constant);
+        }
+        if(constant != 0){
+            terms.add(number(constant));
+        }
+        return terms.size() == 1 ? terms.get(0) : new Sum(terms);
+    }
+
+    private Expr product(Product product){
+        ArrayList<Expr> factors = new ArrayList<>();
+        ArrayList<Expr> numbers = new ArrayList<>();
+        double coefficient = 1;
+        boolean negative = false; //minus signs alone, for when the numbers can't be folded
+        for(Expr factor : product.factors){
+            if(factor.isMinusSign()){
+                coefficient = -coefficient;
+                negative = !negative;
+                continue;
+            }
+            Expr term = simplified(factor);
+            if(term instanceof Product inner){ //inner products are already simplified: an optional coefficient then other factors
+                for(Expr innerFactor : inner.factors){
+                    if(innerFactor.isMinusSign()){
+                        coefficient = -coefficient;
+                        negative = !negative;
+                    } else if(isNumber(innerFactor)){
+                        coefficient *= innerFactor.num;
+                        numbers.add(innerFactor);
+                    } else {
+                        factors.add(innerFactor);
+                    }
+                }
+            } else if(isNumber(term)){
+                coefficient *= term.num;
+                numbers.add(term);
+            } else {
+                factors.add(term);
+            }
+        }
+        if(!Double.isFinite(coefficient)){ //the numbers overflow when multiplied, so they are kept apart
+            numbers.addAll(factors);
+            if(negative){
+                numbers.add(0, new Variable("-"));
+            }
+            return new Product(numbers);
+        }
+        if(factors.isEmpty() || coefficient == 0){
+            return number(coefficient);
+        }
+        if(coefficient == -1){
+            factors.add(0, new Variable("-")); //written the way the parser reads a leading minus
+        } else if(coefficient != 1){
+            factors.add(0, number(coefficient));
+        }
+        return factors.size() == 1 ? factors.get(0) : new Product(factors);
+    }
+
+    private static Expr power(Expr base, Expr exponent, boolean isRoot){
+        if(isNumber(base) && isNumber(exponent)){
+            double value = isRoot ? ExprCompiler.nthRoot(base.num, exponent.num) : Math.pow(base.num, exponent.num); //the compiled evaluators' roots
+            if(Double.isFinite(value)){
+                return number(value);
+            }
+        }
+        if(isNumber(exponent)){
+            if(exponent.num == 1){ //x^{1} and the first root of x
+                return base;
+            }
+            if(!isRoot && exponent.num == 0){
+                return number(1);
+            }
+        }
+        return new Power(base, exponent, isRoot);
+    }
+
+    private static Expr fraction(Expr numerator, Expr denominator){
+        if(isNumber(denominator) && denominator.num == 0){ //nothing over zero has a value
+            return new Fraction(numerator, denominator);
+        }
+        if(isNumber(numerator) && isNumber(denominator) && Double.isFinite(numerator.num / denominator.num)){
+            return number(numerator.num / denominator.num);
+        }
+        if(isNumber(numerator) && numerator.num == 0){
+            return number(0);
+        }
+        if(isNumber(denominator) && denominator.num == 1){
+            return numerator;
+        }
+        return new Fraction(numerator, denominator);
+    }
+
+    static boolean isNumber(Expr expr){ //constants with a known value, the only nodes left once a constant subtree is folded
+        return expr instanceof Constant && expr.num != null;
+    }
+
+    static Constant number(double value){ //written in plain digits the lexer reads back, whole numbers without a trailing ".0"
+        if(!Double.isFinite(value)){
+            throw new IllegalArgumentException(value + " can't be written as a number");
+        }
+        if(value == Math.rint(value) && Math.abs(value) < 1e15){
+            return new Constant(value, Long.toString((long) value));
+        }
+        return new Constant(value, BigDecimal.valueOf(value).toPlainString()); //the shortest digits that give the value back, without an exponent
+    }
+}
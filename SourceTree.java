@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SourceTree {
+    /*
+    A parsed expression together with the source range of each of its nodes, for editors that re-parse after every keystroke.
+    Expr nodes can be interned and shared, so the ranges are kept in a separate tree of Nodes that mirrors the expression.
+    edit() applies a text edit and re-parses only the innermost bracketed group whose content holds the whole edit,
+    then splices the new group into copies of its ancestors; everything else, including the spans, is reused.
+    Group contents parse the same on their own as inside the whole expression (the tokens around a group never change
+    how its content is read), so the result equals a full re-parse. Edits that aren't inside a group, that unbalance the
+    group's brackets or that don't parse fall back to a full parse, which also gives the usual error messages.
+    */
+
+    public final String text;
+    public final Expr expr;
+    final Node root;
+    int reparsed; //length of the text the last edit re-parsed, for measuring
+
+    private SourceTree(String text, Node root){
+        this.text = text;
+        this.expr = root.expr;
+        this.root = root;
+        this.reparsed = text.length();
+    }
+
+    public static SourceTree parse(String text){
+        LatexParser parser = new LatexParser(new LatexLexer(text));
+        parser.spans = new ArrayList<>();
+        parser.parseInput();
+        return new SourceTree(text, parser.spans.get(0));
+    }
+
+    public SourceTree edit(int offset, int deleted, String inserted){ //replaces deleted characters at offset with inserted
+        if(offset < 0 || deleted < 0 || offset + deleted > text.length()){
+            throw new IllegalArgumentException("edit of " + deleted + " characters at " + offset + " is outside the text");
+        }
+        String updated = text.substring(0, offset) + inserted + text.substring(offset + deleted);
+        int delta = inserted.length() - deleted;
+
+        ArrayList<Node> path = new ArrayList<>(); //nodes from the root down to the innermost node holding the edit
+        int[] indexes = new int[16]; //index of the next node on the path in each node's children
+        int group = -1;
+        int groupStart = 0;
+        Node node = root;
+        int start = root.offset;
+        while(node != null){
+            path.add(node);
+            if(node.group && offset > start && offset + deleted < start + node.length){ //inside the brackets
+                group = path.size() - 1;
+                groupStart = start;
+            }
+            Node next = null;
+            for(int i = 0; i < node.children.length && next == null; i++){
+                Node child = node.children[i];
+                if(child != null && start + child.offset <= offset && offset + deleted <= start + child.offset + child.length){
+                    next = child;
+                    if(path.size() > indexes.length){
+                        indexes = Arrays.copyOf(indexes, indexes.length * 2);
+                    }
+                    indexes[path.size() - 1] = i;
+                    start += child.offset;
+                }
+            }
+            node = next;
+        }
+        if(group == -1){
+            return parse(updated);
+        }
+
+        Node old = path.get(group);
+        Node fresh = reparseGroup(updated, groupStart, old, delta);
+        if(fresh == null){
+            return parse(updated);
+        }
+        for(int i = group - 1; i >= 0; i--){ //path copying, siblings after the edit are shifted by delta
+            Node parent = path.get(i);
+            int index = indexes[i];
+            Node[] children = parent.children.clone();
+            for(int j = 0; j < children.length; j++){
+                Node child = children[j];
+                if(j != index && child != null && child.offset > old.offset){
+                    children[j] = new Node(child.expr, child.offset + delta, child.length, child.children, child.group);
+                }
+            }
+            children[index] = fresh;
+            Expr expr = parent.group ? fresh.expr : withChild(parent.expr, index, fresh.expr);
+            old = parent;
+            fresh = new Node(expr, parent.offset, parent.length + delta, children, parent.group);
+        }
+        SourceTree out = new SourceTree(updated, fresh);
+        out.reparsed = path.get(group).length + delta;
+        return out;
+    }
+
+    private static Node reparseGroup(String updated, int start, Node old, int delta){ //null if the group can't be parsed on its own
+        int from = start + 1;
+        int to = start + old.length + delta - 1;
+        LatexLexer lex = new LatexLexer(updated, from, to);
+        int last = lex.count - 2;
+        if(last >= 0 && lex.kinds[last] == Token.COMMAND && lex.ends[last] - lex.starts[last] == 1){
+            return null; //a trailing backslash would take the closing bracket as its command
+        }
+        LatexParser parser;
+        try {
+            parser = new LatexParser(lex);
+            parser.spans = new ArrayList<>();
+            parser.parseInput();
+        } catch(RuntimeException e){
+            return null;
+        }
+        Node inner = parser.spans.get(0);
+        inner.offset -= start;
+        return new Node(inner.expr, old.offset, old.length + delta, new Node[]{inner}, true);
+    }
+
+    private static Expr withChild(Expr parent, int index, Expr child){ //copy of parent with one child replaced, children in Node order
+        if(parent instanceof Sum sum){
+            ArrayList<Expr> addends = new ArrayList<>(sum.addends);
+            addends.set(index, child);
+            return new Sum(addends);
+        }
+        else if(parent instanceof Product product){
+            ArrayList<Expr> factors = new ArrayList<>(product.factors);
+            factors.set(index, child);
+            return new Product(factors);
+        }
+        else if(parent instanceof Power power){
+            return index == 0 ? new Power(child, power.exponent, power.isRoot) : new Power(power.base, child, power.isRoot);
+        }
+        else if(parent instanceof Fraction fraction){
+            return index == 0 ? new Fraction(child, fraction.denominator) : new Fraction(fraction.numerator, child);
+        }
+        else if(parent instanceof TrigFunc trig){
+            return new TrigFunc(trig.func, child);
+        }
+        else if(parent instanceof Integral integral){
+            return index == 0 ? new Integral(child, integral.respectTo) : new Integral(integral.arg, (Variable) child);
+        }
+        throw new RuntimeException("unknown expression type " + parent.getClass().getSimpleName());
+    }
+
+    public Expr nodeAt(int offset){ //innermost node whose source covers the character at offset, or null
+        Node node = root;
+        int start = root.offset;
+        if(offset < start || offset >= start + root.length){
+            return null;
+        }
+        while(true){
+            Node next = null;
+            for(Node child : node.children){
+                if(child != null && start + child.offset <= offset && offset < start + child.offset + child.length){
+                    next = child;
+                    start += child.offset;
+                    break;
+                }
+            }
+            if(next == null){
+                return node.expr;
+            }
+            node = next;
+        }
+    }
+
+    static final class Node { //source range of one expression node
+        final Expr expr;
+        int offset; //start relative to the parent's start, absolute for the root, fixed once a parent adopts the node
+        final int length;
+        final Node[] children; //one per child of expr, in Sum/Product order, base then exponent, numerator then denominator, arg then differential; null where a child has no source like \sqrt's implied 2
+        final boolean group; //bracketed content, the range includes the brackets and expr is the content's expression
+
+        Node(Expr expr, int offset, int length, Node[] children, boolean group){
+            this.expr = expr;
+            this.offset = offset;
+            this.length = length;
+            this.children = children;
+            this.group = group;
+        }
+
+        static Node adopt(Expr expr, int start, int end, List<Node> stack, int count, boolean group){ //takes the newest count spans on the stack as children
+            Node[] children = new Node[count];
+            for(int i = count - 1; i >= 0; i--){
+                Node child = stack.remove(stack.size() - 1);
+                if(child != null){
+                    child.offset -= start;
+                }
+                children[i] = child;
+            }
+            return new Node(expr, start, end - start, children, group);
+        }
+    }
+}
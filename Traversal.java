@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+public class Traversal {
+    /*
+    Walks expression trees with an explicit stack instead of recursion, using Expr.childCount and Expr.child,
+    so any depth that fits in the heap can be visited. Nodes shared by several parents (from ExprFactory) are
+    visited once per parent, like the recursive walks they replace. The stack holds one entry per child still
+    to visit, so it grows with depth and the width of the nodes on the current path.
+    */
+
+    public static void preOrder(Expr root, Consumer<Expr> visit){ //each node before its children, children left to right
+        ArrayList<Expr> stack = new ArrayList<>();
+        stack.add(root);
+        while(!stack.isEmpty()){
+            Expr expr = stack.remove(stack.size() - 1);
+            visit.accept(expr);
+            for(int i = expr.childCount() - 1; i >= 0; i--){
+                stack.add(expr.child(i));
+            }
+        }
+    }
+
+    public static void postOrder(Expr root, Consumer<Expr> visit){ //each node after all of its children
+        Expr[] nodes = new Expr[16]; //nodes on the current path
+        int[] next = new int[16]; //index of the next child to visit for each of them
+        int size = 1;
+        nodes[0] = root;
+        while(size > 0){
+            int top = size - 1;
+            Expr expr = nodes[top];
+            int i = next[top];
+            if(i < expr.childCount()){
+                next[top] = i + 1;
+                if(size == nodes.length){
+                    nodes = Arrays.copyOf(nodes, size * 2);
+                    next = Arrays.copyOf(next, size * 2);
+                }
+                nodes[size] = expr.child(i);
+                next[size++] = 0;
+            } else {
+                nodes[--size] = null;
+                visit.accept(expr);
+            }
+        }
+    }
+
+    public static int depth(Expr root){ //nodes on the longest path from root to a leaf
+        Expr[] nodes = new Expr[16];
+        int[] depths = new int[16];
+        int size = 1;
+        nodes[0] = root;
+        depths[0] = 1;
+        int max = 0;
+        while(size > 0){
+            Expr expr = nodes[--size];
+            nodes[size] = null;
+            int depth = depths[size];
+            max = Math.max(max, depth);
+            for(int i = 0; i < expr.childCount(); i++){
+                if(size == nodes.length){
+                    nodes = Arrays.copyOf(nodes, size * 2);
+                    depths = Arrays.copyOf(depths, size * 2);
+                }
+                nodes[size] = expr.child(i);
+                depths[size++] = depth + 1;
+            }
+        }
+        return max;
+    }
+
+    public static boolean deeperThan(Expr root, int limit){ //whether some path has more than limit nodes, stopping at the first one that does
+        Expr[] nodes = new Expr[16];
+        int[] depths = new int[16];
+        int size = 1;
+        nodes[0] = root;
+        depths[0] = 1;
+        while(size > 0){
+            Expr expr = nodes[--size];
+            nodes[size] = null;
+            int depth = depths[size];
+            if(depth > limit){
+                return true;
+            }
+            for(int i = expr.childCount() - 1; i >= 0; i--){ //the first child is walked first, like the recursive walks
+                if(size == nodes.length){
+                    nodes = Arrays.copyOf(nodes, size * 2);
+                    depths = Arrays.copyOf(depths, size * 2);
+                }
+                nodes[size] = expr.child(i);
+                depths[size++] = depth + 1;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,47 @@
+import bench.Target;
+
+public class BenchTarget implements Target {
+    /*
+    Forwards the benchmarks' calls from the bench package to the classes in the default package.
+    */
+
+    @Override
+    public Object parse(String latex){
+        return LatexHelper.toExpr(latex);
+    }
+
+    @Override
+    public Object referenceParse(String latex){
+        return LatexHelper.referenceToExpr(latex);
+    }
+
+    @Override
+    public Object sequentialParse(String latex){
+        return new LatexParser(new LatexLexer(latex)).parseInput();
+    }
+
+    @Override
+    public String emit(Object expr){
+        return ((Expr) expr).toLatex();
+    }
+
+    @Override
+    public Object compile(Object expr, String... variables){
+        return ExprCompiler.compile((Expr) expr, variables);
+    }
+
+    @Override
+    public double eval(Object compiled, double[] vars){
+        return ((Evaluator) compiled).eval(vars);
+    }
+
+    @Override
+    public Object batch(Object expr, String... variables){
+        return new BatchEvaluator((Expr) expr, variables);
+    }
+
+    @Override
+    public void evalBatch(Object batch, double[][] columns, double[] out){
+        ((BatchEvaluator) batch).evaluate(columns, out);
+    }
+}
@@ -0,0 +1,74 @@
+package bench;
+
+public final class Corpus {
+    /*
+    Generated inputs that grow in length and nesting depth:
+    long sums, deep \frac chains, nested \sqrt[n]{} and products of trig powers like \sin^{2}(x).
+    Every input only uses the variables x and y.
+    */
+
+    private Corpus(){
+    }
+
+    public static String of(String name, int size){
+        switch(name){
+            case "sum" -> {return longSum(size);}
+            case "trig" -> {return trigPowers(size);}
+            case "frac" -> {return fracChain(size);}
+            case "sqrt" -> {return nestedRoots(size);}
+            default -> throw new IllegalArgumentException("unknown corpus " + name);
+        }
+    }
+
+    static String longSum(int terms){ //3x^{2}+4y-5\pi+...
+        StringBuilder out = new StringBuilder();
+        for(int i = 0; i < terms; i++){
+            if(i > 0){
+                out.append(i % 3 == 0 ? '-' : '+');
+            }
+            switch(i % 4){
+                case 0 -> out.append(i + 1).append("x^{").append(i % 7 + 1).append('}');
+                case 1 -> out.append(i + 1).append('y');
+                case 2 -> out.append(i + 1).append("\\pi");
+                default -> out.append("\\frac{x}{").append(i + 1).append('}');
+            }
+        }
+        return out.toString();
+    }
+
+    static String fracChain(int depth){ //\frac{1}{x+\frac{1}{x+\frac{1}{...}}}
+        StringBuilder out = new StringBuilder();
+        for(int i = 0; i < depth; i++){
+            out.append("\\frac{1}{x+");
+        }
+        out.append('1');
+        for(int i = 0; i < depth; i++){
+            out.append('}');
+        }
+        return out.toString();
+    }
+
+    static String nestedRoots(int depth){ //\sqrt[3]{x+\sqrt[4]{x+...}}
+        StringBuilder out = new StringBuilder();
+        for(int i = 0; i < depth; i++){
+            out.append("\\sqrt[").append(i % 5 + 3).append("]{x+");
+        }
+        out.append('1');
+        for(int i = 0; i < depth; i++){
+            out.append('}');
+        }
+        return out.toString();
+    }
+
+    static String trigPowers(int terms){ //\sin^{2}(x)\cos^{3}(2x)+...
+        String[] names = {"\\sin", "\\cos", "\\tan", "\\sec"};
+        StringBuilder out = new StringBuilder();
+        for(int i = 0; i < terms; i++){
+            if(i > 0 && i % 4 == 0){
+                out.append('+');
+            }
+            out.append(names[i % names.length]).append("^{").append(i % 3 + 2).append("}(").append(i % 5 + 1).append("x)");
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EvalBenchmark {
+    /*
+    Evaluates a parsed corpus input at every row of x and y columns,
+    once row by row through an ExprCompiler evaluator and once through a BatchEvaluator.
+    Batches with more than BatchEvaluator.PARALLEL_THRESHOLD rows are split across cores.
+    */
+
+    @Param({"sum", "trig", "frac", "sqrt"})
+    public String corpus;
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    @Param({"1024", "262144"})
+    public int rows;
+
+    private Target target;
+    private Object compiled;
+    private Object batch;
+    private double[][] columns;
+    private double[] vars;
+    private double[] out;
+
+    @Setup
+    public void setUp(){
+        target = Target.load();
+        Object expr = target.parse(Corpus.of(corpus, size));
+        compiled = target.compile(expr, "x", "y");
+        batch = target.batch(expr, "x", "y");
+        columns = new double[2][rows];
+        for(int i = 0; i < rows; i++){ //positive values so every root is real
+            columns[0][i] = 0.1 + 2.0 * i / rows;
+            columns[1][i] = 1.5 - 1.0 * i / rows;
+        }
+        vars = new double[2];
+        out = new double[rows];
+    }
+
+    @Benchmark
+    public double compiled(){
+        double total = 0;
+        for(int i = 0; i < rows; i++){
+            vars[0] = columns[0][i];
+            vars[1] = columns[1][i];
+            total += target.eval(compiled, vars);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double[] batch(){
+        target.evalBatch(batch, columns, out);
+        return out;
+    }
+}
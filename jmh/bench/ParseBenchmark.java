@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParseBenchmark {
+    /*
+    Parser and emitter over the corpus.
+    The 100000 term sum goes through ParallelParser on machines with more than one core, and sequentialToExpr
+    parses it without, so the two show what the split gains. The 100000 deep chains check that nesting doesn't cost
+    more per level than length.
+    Results are returned so JMH sinks them in a blackhole.
+    */
+
+    @Param({"sum", "trig", "frac", "sqrt"})
+    public String corpus;
+
+    @Param({"10", "100", "1000", "100000"})
+    public int size;
+
+    private Target target;
+    private String latex;
+    private Object parsed;
+
+    @Setup
+    public void setUp(){
+        target = Target.load();
+        latex = Corpus.of(corpus, size);
+        parsed = target.parse(latex);
+    }
+
+    @Benchmark
+    public Object toExpr(){
+        return target.parse(latex);
+    }
+
+    @Benchmark
+    public Object sequentialToExpr(){
+        return target.sequentialParse(latex);
+    }
+
+    @Benchmark
+    public String toLatex(){
+        return target.emit(parsed);
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReferenceParseBenchmark {
+    /*
+    LatexHelper.referenceToExpr on the small inputs of the corpus, as the baseline for ParseBenchmark.toExpr.
+    The reference parser is quadratic, so larger inputs would take too long.
+    */
+
+    @Param({"sum", "trig", "frac", "sqrt"})
+    public String corpus;
+
+    @Param({"10", "100"})
+    public int size;
+
+    private Target target;
+    private String latex;
+
+    @Setup
+    public void setUp(){
+        target = Target.load();
+        latex = Corpus.of(corpus, size);
+    }
+
+    @Benchmark
+    public Object referenceToExpr(){
+        return target.referenceParse(latex);
+    }
+}
@@ -0,0 +1,34 @@
+package bench;
+
+public interface Target {
+    /*
+    The code under test as seen from the benchmarks.
+    JMH can't generate benchmarks in the default package, and a named package can't import the default package,
+    so the benchmarks call the parser and evaluators through this interface and BenchTarget implements it.
+    Expressions and compiled evaluators are passed around as Object.
+    */
+
+    Object parse(String latex);
+
+    Object referenceParse(String latex);
+
+    Object sequentialParse(String latex); //LatexParser without ParallelParser
+
+    String emit(Object expr);
+
+    Object compile(Object expr, String... variables); //an ExprCompiler evaluator
+
+    double eval(Object compiled, double[] vars);
+
+    Object batch(Object expr, String... variables); //a BatchEvaluator
+
+    void evalBatch(Object batch, double[][] columns, double[] out);
+
+    static Target load(){
+        try {
+            return (Target) Class.forName("BenchTarget").getDeclaredConstructor().newInstance();
+        } catch(ReflectiveOperationException e){
+            throw new RuntimeException("BenchTarget is missing from the benchmark jar", e);
+        }
+    }
+}
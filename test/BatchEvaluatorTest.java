@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class BatchEvaluatorTest {
+
+    static void matchesCompiler(String latex, double[] xs){ //every row gives what ExprCompiler gives for it
+        Expr expr = LatexHelper.toExpr(latex);
+        Evaluator compiled = ExprCompiler.compile(expr, "x");
+        double[] expected = new double[xs.length];
+        for(int i = 0; i < xs.length; i++){
+            expected[i] = compiled.eval(new double[]{xs[i]});
+        }
+        assertArrayEquals(expected, new BatchEvaluator(expr, "x").evaluate(new double[][]{xs}), 1e-12, latex);
+    }
+
+    static double[] range(int rows, double from, double to){
+        double[] out = new double[rows];
+        for(int i = 0; i < rows; i++){
+            out[i] = from + (to - from) * i / rows;
+        }
+        return out;
+    }
+
+    @Test
+    void sameValuesAsTheCompiler(){
+        double[] xs = range(3000, -4, 4); //spans several chunks
+        matchesCompiler("3x^{2}+x-5", xs);
+        matchesCompiler("\\frac{\\sin(x)}{x^{2}+1}\\cos(2x)", xs);
+        matchesCompiler("\\sqrt[3]{x}+\\sqrt[5]{x}+\\sqrt[4]{x}", xs);
+        matchesCompiler("\\sqrt[x]{-2}", xs);
+        matchesCompiler("\\sec(x)+\\arctan(x)", xs);
+    }
+
+    @Test
+    void largeBatchesAreSplitAcrossCores(){
+        matchesCompiler("\\sqrt[7]{x}x+1", range(BatchEvaluator.PARALLEL_THRESHOLD * 3 + 17, -10, 10));
+    }
+
+    @Test
+    void errors(){
+        assertThrows(IllegalArgumentException.class, () -> new BatchEvaluator(LatexHelper.toExpr("\\int(x)dx"), "x"));
+        BatchEvaluator batch = new BatchEvaluator(LatexHelper.toExpr("x+y"), "x", "y");
+        assertThrows(IllegalArgumentException.class, () -> batch.evaluate(new double[][]{{1}}));
+    }
+
+    @Test
+    void deepTrees() throws Throwable { //past ExprCompiler.MAX_DEPTH each row goes through a FlatExpr
+        LatexParserTest.onSmallStack(() -> {
+            int depth = 20_000;
+            matchesCompiler("\\sqrt{x+".repeat(depth) + "x" + "}".repeat(depth), range(3000, 0, 4));
+            matchesCompiler("\\sin(".repeat(depth) + "x" + ")".repeat(depth) + "+1", range(100, -4, 4));
+        });
+    }
+}
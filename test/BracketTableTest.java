@@ -0,0 +1,32 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class BracketTableTest {
+
+    @Test
+    void bracketsMatchAcrossLayers(){
+        LatexLexer lex = new LatexLexer("\\frac{(a)}{[b]}{c}");
+        BracketTable brackets = new BracketTable(lex);
+        assertEquals(5, brackets.close(1)); //{(a)}
+        assertEquals(4, brackets.close(2)); //(a)
+        assertEquals(10, brackets.close(6)); //{[b]}
+        assertEquals(5, brackets.close(1, 1)); //the nth curly group on the layer, counting the given one as the first
+        assertEquals(10, brackets.close(1, 2));
+        assertEquals(13, brackets.close(1, 3));
+        assertEquals(-1, brackets.close(1, 4));
+    }
+
+    @Test
+    void unbalancedBrackets(){
+        assertError("unmatched ) at position 1", "x)");
+        assertError("unmatched { at position 0", "{x");
+        assertError("] at position 3 does not match ( at position 0", "(x+]");
+    }
+
+    static void assertError(String message, String latex){
+        RuntimeException e = assertThrows(RuntimeException.class, () -> new BracketTable(new LatexLexer(latex)));
+        assertEquals(message, e.getMessage());
+    }
+}
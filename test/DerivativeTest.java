@@ -0,0 +1,80 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class DerivativeTest {
+
+    static String derive(String latex){ //the derivative's latex, checked to parse back to the same tree
+        Expr derivative = Derivative.differentiate(LatexHelper.toExpr(latex), "x");
+        String printed = derivative.toLatex();
+        assertEquals(derivative, LatexHelper.toExpr(printed), printed);
+        return printed;
+    }
+
+    static double at(String latex, double x){
+        return ExprCompiler.function(LatexHelper.toExpr(latex), "x").applyAsDouble(x);
+    }
+
+    @Test
+    void powers(){
+        assertEquals("2(x+1)", derive("(x+1)^{2}"));
+        assertEquals("2x", derive("x^{1+1}"));
+        assertEquals("3x^{2}", derive("x^{3}"));
+        assertEquals(3.14159 * Math.pow(2, 2.14159), at(derive("x^{\\pi}"), 2), 1e-9);
+    }
+
+    @Test
+    void roots(){
+        String derivative = derive("\\sqrt[3]{x+1}");
+        assertEquals(Math.cbrt(8) / (3 * 8), at(derivative, 7), 1e-12);
+    }
+
+    @Test
+    void chainAndQuotientRules(){
+        assertEquals(Math.cos(4) * 4, at(derive("\\sin(x^{2})"), 2), 1e-12);
+        assertEquals(-1.0 / 9, at(derive("\\frac{1}{x+1}"), 2), 1e-12);
+        assertEquals(0, at(derive("\\pi x+\\pi"), 2) - 3.14159, 1e-12);
+    }
+
+    static void sameValueAfterPrinting(String latex, double x, double y){ //the printed derivative parses back to the same values
+        Expr derivative = Derivative.differentiate(LatexHelper.toExpr(latex), "x");
+        Expr reparsed = LatexHelper.toExpr(derivative.toLatex());
+        double[] vars = {x, y};
+        assertEquals(ExprCompiler.compile(derivative, "x", "y").eval(vars), ExprCompiler.compile(reparsed, "x", "y").eval(vars), 1e-9,
+            derivative.toLatex());
+    }
+
+    @Test
+    void negativeCoefficients(){
+        assertEquals("-yx^{-2}", derive("yx^{-1}"));
+        assertEquals(-0.75, at(derive("3x^{-1}"), 2), 1e-12);
+        sameValueAfterPrinting("yx^{-1}", 2, 3);
+        sameValueAfterPrinting("\\sin(x)x^{-2}", 2, 0);
+        sameValueAfterPrinting("x^{-3}y+2x^{-0.5}", 1.5, -2);
+        sameValueAfterPrinting("0.5^{x}y", 2, 3);
+        sameValueAfterPrinting("y2^{x}x", 1.5, 3); //the folded coefficient can't go in front of a numeric base
+        sameValueAfterPrinting("x^{3}3^{x}", 1.5, 0);
+        sameValueAfterPrinting("y\\cos(x)x^{-1}-\\frac{1}{x}", 0.7, 4);
+        assertEquals(-2 / Math.pow(2, 3) * 0.5, at(derive("\\frac{x^{-2}}{2}"), 2), 1e-12);
+    }
+
+    @Test
+    void unsupportedInputs(){
+        assertEquals("powers with a variable base and exponent need a logarithm, which expressions can't represent",
+                assertThrows(IllegalArgumentException.class, () -> derive("x^{x}")).getMessage());
+        assertEquals("roots with a variable index need a logarithm, which expressions can't represent",
+                assertThrows(IllegalArgumentException.class, () -> derive("\\sqrt[x]{2}")).getMessage());
+        assertThrows(IllegalArgumentException.class, () -> derive("\\int(x)dy"));
+        assertThrows(IllegalArgumentException.class, () -> derive("(-2)^{x}"));
+    }
+
+    @Test
+    void deepTrees() throws Throwable { //f = \\sqrt{x+f} has f' = \\frac{1}{2f-1}, which is \\frac{1}{3} at x = 2
+        LatexParserTest.onSmallStack(() -> {
+            int depth = 100_000;
+            Expr derivative = Derivative.differentiate(LatexHelper.toExpr("\\sqrt{x+".repeat(depth) + "x" + "}".repeat(depth)), "x");
+            assertEquals(1.0 / 3, ExprCompiler.function(derivative, "x").applyAsDouble(2), 1e-12);
+        });
+    }
+}
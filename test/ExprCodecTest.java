@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExprCodecTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        List<Expr> exprs = new ArrayList<>();
+        for(String latex : new String[]{"x", "3.50", "\\pi e", "-(a+b)c", "\\sqrt[3]{x+1}\\sin^{2}(x)", "\\frac{1}{x^{2}}",
+            "\\int(x^{2}+1)dx", "\\tan(\\cos(y))"}){
+            exprs.add(LatexHelper.toExpr(latex));
+        }
+        Path file = dir.resolve("exprs.bin");
+        ExprCodec.writeAll(file, exprs);
+        List<Expr> read = ExprCodec.readAll(file);
+        assertEquals(exprs, read);
+        for(int i = 0; i < exprs.size(); i++){
+            assertEquals(exprs.get(i).toLatex(), read.get(i).toLatex()); //numbers keep the text they were written as
+        }
+    }
+
+    @Test
+    void sharedNodesStayShared() throws IOException {
+        Expr square = ExprFactory.power(ExprFactory.variable("x"), ExprFactory.constant(2));
+        Path file = dir.resolve("dag.bin");
+        ExprCodec.writeAll(file, List.of(ExprFactory.sum(square, square, square)));
+        Sum read = (Sum) ExprCodec.readAll(file).get(0);
+        assertSame(read.addends.get(0), read.addends.get(1));
+        assertSame(read.addends.get(0), read.addends.get(2));
+    }
+
+    @Test
+    void deepExpressionsOnASmallStack() throws Throwable {
+        int depth = 100_000;
+        Path file = dir.resolve("deep.bin");
+        LatexParserTest.onSmallStack(() -> {
+            try {
+                Expr deep = LatexHelper.toExpr("\\frac{1}{x+".repeat(depth) + "1" + "}".repeat(depth));
+                ExprCodec.writeAll(file, List.of(deep, deep));
+                assertEquals(List.of(deep, deep), ExprCodec.readAll(file));
+            } catch(IOException e){
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = dir.resolve("other.bin");
+        Files.writeString(file, "not an expression");
+        IOException e = assertThrows(IOException.class, () -> ExprCodec.readAll(file));
+        assertEquals("not an expression stream", e.getMessage());
+    }
+}
@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ExprCompilerTest {
+
+    static double at(String latex, double x){
+        return ExprCompiler.function(LatexHelper.toExpr(latex), "x").applyAsDouble(x);
+    }
+
+    @Test
+    void evaluatesEveryNode(){
+        assertEquals(3 * 4 + 2 - 5, at("3x^{2}+x-5", 2), 1e-12);
+        assertEquals(Math.sin(2) / (2 + 1), at("\\frac{\\sin(x)}{x+1}", 2), 1e-12);
+        assertEquals(-8, at("-x^{3}", 2), 1e-12);
+        assertEquals(1 / Math.tan(2), at("\\cot(x)", 2), 1e-12);
+        assertEquals(3.14159 * 2, at("\\pi x", 2), 1e-12);
+    }
+
+    @Test
+    void oddRootsOfNegativeNumbersAreReal(){
+        assertEquals(-2, at("\\sqrt[3]{x}", -8), 1e-12);
+        assertEquals(-2, at("\\sqrt[5]{x}", -32), 1e-12);
+        assertEquals(-2, at("\\sqrt[-5]{x}", -1.0 / 32), 1e-12);
+        assertEquals(-2, at("\\sqrt[5]{-32}", 0), 1e-12); //folded at compile time
+        assertTrue(Double.isNaN(at("\\sqrt[4]{x}", -16)));
+        Evaluator variableIndex = ExprCompiler.compile(LatexHelper.toExpr("\\sqrt[n]{x}"), "x", "n");
+        assertEquals(-2, variableIndex.eval(new double[]{-128, 7}), 1e-12);
+        assertTrue(Double.isNaN(variableIndex.eval(new double[]{-16, 4})));
+    }
+
+    @Test
+    void errors(){
+        assertThrows(IllegalArgumentException.class, () -> at("\\int(x)dx", 1));
+        assertThrows(RuntimeException.class, () -> at("y", 1));
+    }
+
+    @Test
+    void deepTrees() throws Throwable { //lambdas down to MAX_DEPTH, then the same values from a FlatExpr
+        LatexParserTest.onSmallStack(() -> {
+            int levels = ExprCompiler.MAX_DEPTH - 1;
+            assertEquals(nestedSin(0.5, levels), at("\\sin(".repeat(levels) + "x" + ")".repeat(levels), 0.5), 1e-12);
+            assertEquals(2, at("\\sqrt{x+".repeat(100_000) + "x" + "}".repeat(100_000), 2), 1e-12);
+            assertEquals(nestedSin(0.5, 100_000), at("\\sin(".repeat(100_000) + "x" + ")".repeat(100_000), 0.5), 1e-12);
+        });
+    }
+
+    static double nestedSin(double x, int levels){
+        for(int i = 0; i < levels; i++){
+            x = Math.sin(x);
+        }
+        return x;
+    }
+}
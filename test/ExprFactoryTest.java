@@ -0,0 +1,45 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class ExprFactoryTest {
+
+    @Test
+    void equalTreesInternToOneNode(){
+        String latex = "\\frac{\\sin(x+1)}{(x+1)^{2}}+\\sqrt[3]{y}";
+        Expr a = LatexHelper.toExpr(latex);
+        Expr b = LatexHelper.toExpr(latex);
+        assertNotSame(a, b);
+        Expr canonical = ExprFactory.intern(a);
+        assertSame(canonical, ExprFactory.intern(b));
+        assertSame(canonical, ExprFactory.intern(canonical));
+        assertEquals(a, canonical);
+        Fraction fraction = (Fraction) ((Sum) canonical).addends.get(0);
+        assertSame(((TrigFunc) fraction.numerator).val, ((Power) fraction.denominator).base); //the two x+1 are one node
+    }
+
+    @Test
+    void buildersGiveCanonicalNodes(){
+        Variable x = ExprFactory.variable("x");
+        assertSame(x, ExprFactory.variable("x"));
+        Expr two = ExprFactory.intern(LatexHelper.toExpr("2")); //keeps the text it was written as, unlike constant(2)
+        Expr square = ExprFactory.power(x, two);
+        assertSame(square, ExprFactory.intern(LatexHelper.toExpr("x^{2}")));
+        assertSame(ExprFactory.sum(square, ExprFactory.intern(LatexHelper.toExpr("1"))), ExprFactory.intern(LatexHelper.toExpr("x^{2}+1")));
+        assertSame(ExprFactory.trig(Trig.SIN, x), ExprFactory.intern(LatexHelper.toExpr("\\sin(x)")));
+        assertSame(ExprFactory.fraction(ExprFactory.intern(LatexHelper.toExpr("1")), x), ExprFactory.intern(LatexHelper.toExpr("\\frac{1}{x}")));
+        assertSame(ExprFactory.constant("\\pi"), ExprFactory.intern(LatexHelper.toExpr("\\pi")));
+    }
+
+    @Test
+    void deepTreesOnASmallStack() throws Throwable {
+        int depth = 100_000;
+        LatexParserTest.onSmallStack(() -> {
+            String latex = "\\sqrt{x+".repeat(depth) + "1" + "}".repeat(depth);
+            Expr canonical = ExprFactory.intern(LatexHelper.toExpr(latex));
+            assertSame(canonical, ExprFactory.intern(LatexHelper.toExpr(latex)));
+        });
+    }
+}
@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ExprTest {
+    static final int DEEP = 100_000; //deep enough to overflow any recursion over the tree on a default thread stack
+
+    static String nested(String open, String middle, String close, int depth){
+        return open.repeat(depth) + middle + close.repeat(depth);
+    }
+
+    @Test
+    void constnessOfEveryNode(){
+        Expr x = new Variable("x");
+        Expr two = new Constant(2.0);
+        assertTrue(new Fraction(two, new Constant("\\pi")).isConstant());
+        assertFalse(new Fraction(two, x).isConstant());
+        assertTrue(new TrigFunc(Trig.SIN, two).isConstant());
+        assertFalse(new TrigFunc(Trig.SIN, x).isConstant());
+        assertTrue(new Product(List.of(new Variable("-"), two)).isConstant());
+        assertFalse(new Sum(List.of(two, x)).isConstant());
+        assertTrue(new Power(two, new Sum(List.of(two, two))).isConstant());
+    }
+
+    @Test
+    void deepFractionInsideAProduct(){ //the product asks its factors if they are constant while parsing
+        Expr parsed = LatexHelper.toExpr("x" + nested("\\frac{", "1", "}{2}", DEEP));
+        assertFalse(parsed.isConstant());
+        assertTrue(((Product) parsed).factors.get(1).isConstant());
+    }
+
+    @Test
+    void deepTrigInsideAProduct(){
+        Expr parsed = LatexHelper.toExpr("2" + nested("\\sin(", "x", ")", DEEP));
+        assertFalse(parsed.isConstant());
+    }
+
+    @Test
+    void deepTreesHashAndCompare(){
+        String latex = nested("\\frac{1}{x+", "1", "}", DEEP);
+        Expr a = LatexHelper.toExpr(latex);
+        Expr b = LatexHelper.toExpr(latex);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, LatexHelper.toExpr(nested("\\frac{1}{x+", "2", "}", DEEP)));
+    }
+
+    @Test
+    void hashDoesNotDependOnTheListPassedIn(){
+        Expr x = new Variable("x");
+        ArrayList<Expr> terms = new ArrayList<>(List.of(new Constant(2.0), x, x));
+        assertEquals(new Product(new Constant(2.0), x).hashCode(), new Product(terms.subList(0, 2)).hashCode());
+        assertEquals(new Sum(List.of(x, x)).hashCode(), new Sum(terms.subList(1, 3)).hashCode());
+    }
+
+    @Test
+    void hashMatchesEquality(){
+        Expr a = LatexHelper.toExpr("3x^{2}+\\sin(y)");
+        Expr b = LatexHelper.toExpr("3x^{2}+\\sin(y)");
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, LatexHelper.toExpr("3x^{2}+\\cos(y)"));
+    }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class FlatExprTest {
+
+    static void sameLatex(String latex){
+        Expr parsed = LatexHelper.toExpr(latex);
+        FlatExpr flat = FlatExpr.of(parsed);
+        assertEquals(parsed.toLatex(), flat.toLatex());
+        assertEquals(parsed, flat.toExpr());
+    }
+
+    @Test
+    void writesTheSameLatexAsExpr(){
+        sameLatex("(a+b)c");
+        sameLatex("-(a+b)(c+d)");
+        sameLatex("\\sqrt[3]{x+1}\\sin^{2}(x)+\\frac{1}{(x+1)^{2}}");
+        int depth = LatexWriter.MAX_INLINE_DEPTH * 3;
+        sameLatex("(a+b)" + "\\frac{1}{x+(a+b)".repeat(depth) + "c" + "}".repeat(depth) + "(c+d)");
+    }
+
+    @Test
+    void evaluatesLikeTheCompiler(){
+        for(String latex : new String[]{"3x^{2}+x-5", "\\sqrt[5]{x}-\\sqrt[3]{x}", "\\sqrt[x]{-3}", "\\frac{\\tan(x)}{x^{0.5}+1}"}){
+            Expr expr = LatexHelper.toExpr(latex);
+            Evaluator compiled = ExprCompiler.compile(expr, "x");
+            Evaluator flat = FlatExpr.of(expr).evaluator("x");
+            for(double x = -3; x <= 3; x += 0.25){
+                double[] vars = {x};
+                assertEquals(compiled.eval(vars), flat.eval(vars), 1e-12, latex + " at " + x);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> FlatExpr.of(LatexHelper.toExpr("\\int(x)dx")).evaluator("x"));
+    }
+
+    @Test
+    void evaluatingReusesItsNodeValues(){
+        Evaluator flat = FlatExpr.of(LatexHelper.toExpr("x^{2}+".repeat(200) + "1")).evaluator("x");
+        double[] vars = {2};
+        for(int i = 0; i < 1000; i++){ //warms up, and the thread's array is made here
+            flat.eval(vars);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for(int i = 0; i < 10_000; i++){
+            flat.eval(vars);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(allocated < 100_000, allocated + " bytes for 10000 evaluations"); //an array per call would be over 30MB
+    }
+
+    @Test
+    void evaluatorIsThreadSafe(){
+        Evaluator flat = FlatExpr.of(LatexHelper.toExpr("\\sin(x)x+\\frac{x}{2}")).evaluator("x");
+        IntStream.range(0, 100_000).parallel().forEach(i -> {
+            double x = i / 1000.0;
+            assertEquals(Math.sin(x) * x + x / 2, flat.eval(new double[]{x}), 1e-12);
+        });
+    }
+}
@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class FunctionSamplerTest {
+
+    static final Variable X = new Variable("x");
+
+    static FunctionSampler.Plot sample(String latex, double from, double to, int budget){
+        return FunctionSampler.sample(LatexHelper.toExpr(latex), X, from, to, budget);
+    }
+
+    @Test
+    void linesNeedNoRefining(){
+        FunctionSampler.Plot plot = sample("2x+1", -1, 1, 10_000);
+        assertTrue(plot.complete);
+        assertEquals(FunctionSampler.INITIAL_SEGMENTS + 1, plot.x.length);
+        assertEquals(-1, plot.x[0]);
+        assertEquals(1, plot.x[plot.x.length - 1]);
+        for(int i = 0; i < plot.x.length; i++){
+            assertEquals(2 * plot.x[i] + 1, plot.y[i], 1e-12);
+        }
+    }
+
+    @Test
+    void curvesGetMorePointsWhereTheyBend(){
+        FunctionSampler.Plot plot = sample("\\sin(10x)", 0, 10, 100_000);
+        assertTrue(plot.complete);
+        assertTrue(plot.x.length > FunctionSampler.INITIAL_SEGMENTS + 1);
+        for(int i = 1; i < plot.x.length; i++){
+            assertTrue(plot.x[i - 1] < plot.x[i]);
+        }
+        assertTrue(plot.evaluations <= 100_000);
+    }
+
+    @Test
+    void polesAndGaps(){
+        double[] poles = sample("\\frac{1}{x-0.3}", -1, 1, 10_000).positions(FunctionSampler.POLE);
+        assertEquals(1, poles.length);
+        assertEquals(0.3, poles[0], 1e-9);
+        FunctionSampler.Plot root = sample("\\sqrt{x}", -1, 1, 10_000);
+        assertTrue(root.positions(FunctionSampler.GAP).length > 0);
+        for(double x : root.positions(FunctionSampler.GAP)){
+            assertTrue(x < 0);
+        }
+        assertArrayEquals(new double[0], root.positions(FunctionSampler.POLE));
+    }
+
+    @Test
+    void badArguments(){
+        assertThrows(IllegalArgumentException.class, () -> sample("x", 1, 0, 10_000));
+        assertThrows(IllegalArgumentException.class, () -> sample("x", 0, Double.POSITIVE_INFINITY, 10_000));
+        assertThrows(IllegalArgumentException.class, () -> sample("x", 0, 1, FunctionSampler.INITIAL_SEGMENTS));
+    }
+}
@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+class JfrParseMetricsTest {
+
+    static List<RecordedEvent> record(Duration threshold, Runnable work) throws Exception {
+        Path file = Files.createTempFile("parse", ".jfr");
+        try(Recording recording = new Recording()){
+            recording.enable("latex.Parse").withThreshold(threshold);
+            recording.enable("latex.Emit").withThreshold(threshold);
+            recording.start();
+            Instrumentation.enable(new JfrParseMetrics());
+            try {
+                work.run();
+            } finally {
+                Instrumentation.disable();
+            }
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void eventsAreTimedAndCountEveryConstruct() throws Exception {
+        String latex = "(x+1)^{2}\\sqrt{y}\\frac{\\pi}{2}+\\int(3x)dx-\\sin(x)";
+        String[] printed = new String[1];
+        List<RecordedEvent> events = record(Duration.ZERO, () -> printed[0] = LatexHelper.toExpr(latex).toLatex());
+        assertEquals(2, events.size());
+        RecordedEvent parse = events.stream().filter(e -> e.getEventType().getName().equals("latex.Parse")).findFirst().orElseThrow();
+        RecordedEvent emit = events.stream().filter(e -> e.getEventType().getName().equals("latex.Emit")).findFirst().orElseThrow();
+        assertTrue(parse.getDuration().toNanos() > 0);
+        assertTrue(emit.getDuration().toNanos() > 0);
+        assertEquals(latex.length(), parse.getInt("inputLength"));
+        assertEquals(printed[0].length(), emit.getInt("outputLength"));
+
+        ParseStats stats = new ParseStats();
+        Instrumentation.enable(stats);
+        try {
+            LatexHelper.toExpr(latex);
+        } finally {
+            Instrumentation.disable();
+        }
+        String[] fields = {"numbers", "variables", "namedConstants", "parentheses", "exponents", "roots", "fractions",
+            "integrals", "trigFunctions", "sums", "products"};
+        Construct[] constructs = Construct.values();
+        for(int i = 0; i < constructs.length; i++){
+            assertEquals(stats.count(constructs[i]), parse.getInt(fields[i]), fields[i]);
+        }
+        assertTrue(parse.getInt("parentheses") > 0 && parse.getInt("sums") > 0 && parse.getInt("products") > 0);
+    }
+
+    @Test
+    void theRecordingThresholdApplies() throws Exception {
+        assertEquals(List.of(), record(Duration.ofHours(1), () -> LatexHelper.toExpr("x+1").toLatex()));
+    }
+}
@@ -0,0 +1,29 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class LatexLexerTest {
+
+    @Test
+    void tokensAndRanges(){
+        LatexLexer lex = new LatexLexer(" \\frac{12.5}{x} ^\\{-");
+        Token[] kinds = {Token.COMMAND, Token.OPEN_CURLY, Token.NUMBER, Token.CLOSE_CURLY, Token.OPEN_CURLY, Token.CHAR,
+            Token.CLOSE_CURLY, Token.CARET, Token.COMMAND, Token.MINUS, Token.END};
+        assertArrayEquals(kinds, Arrays.copyOf(lex.kinds, lex.count));
+        assertArrayEquals(new int[]{1, 6, 7, 11, 12, 13, 14, 16, 17, 19, 20}, Arrays.copyOf(lex.starts, lex.count));
+        assertArrayEquals(new int[]{6, 7, 11, 12, 13, 14, 15, 17, 19, 20, 20}, Arrays.copyOf(lex.ends, lex.count));
+        assertEquals(true, lex.matches(0, "\\frac"));
+        assertEquals(false, lex.matches(0, "\\fra"));
+    }
+
+    @Test
+    void commandsInARangeOfTheSource(){ //a command is a backslash and letters, or a backslash and one other character
+        LatexLexer lex = new LatexLexer("ab\\pi\\,x", 1, 7);
+        assertArrayEquals(new Token[]{Token.CHAR, Token.COMMAND, Token.COMMAND, Token.END}, Arrays.copyOf(lex.kinds, lex.count));
+        assertArrayEquals(new int[]{1, 2, 5, 7}, Arrays.copyOf(lex.starts, lex.count));
+        assertArrayEquals(new int[]{2, 5, 7, 7}, Arrays.copyOf(lex.ends, lex.count));
+        assertEquals('\\', lex.firstChar(2));
+    }
+}
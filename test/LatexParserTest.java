@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class LatexParserTest {
+
+    static void roundTrips(String latex){ //the printed latex parses back to the same tree and prints the same way
+        Expr parsed = LatexHelper.toExpr(latex);
+        String printed = parsed.toLatex();
+        assertEquals(parsed, LatexHelper.toExpr(printed), printed);
+        assertEquals(printed, LatexHelper.toExpr(printed).toLatex());
+    }
+
+    @Test
+    void sumsInsideProductsKeepTheirParentheses(){
+        assertEquals("(a+b)c", LatexHelper.toExpr("(a+b)c").toLatex());
+        assertEquals("-(a+b)", LatexHelper.toExpr("-(a+b)").toLatex());
+        roundTrips("(a+b)c");
+        roundTrips("2(x+1)(x+-1)");
+        roundTrips("(x+1)^{2}y");
+        roundTrips("\\sin(x)(x+y)");
+    }
+
+    @Test
+    void deferredSumsInsideProducts(){ //past LatexWriter.MAX_INLINE_DEPTH the parentheses go through the writer's stack
+        int depth = LatexWriter.MAX_INLINE_DEPTH * 3;
+        roundTrips("(a+b)".repeat(2) + "\\frac{1}{x+(a+b)".repeat(depth) + "c" + "}".repeat(depth) + "(c+d)");
+    }
+
+    @Test
+    void malformedIntegrals(){
+        assertError("unexpected x at position 5", "\\int x dx");
+        assertError("unexpected end of expression at position 4", "\\int");
+        assertError("expected differential after integral at position 7", "\\int(x)+dx");
+        assertError("expected differential after integral at position 7", "\\int(x)");
+        assertEquals("\\int(x^{2})dx", LatexHelper.toExpr("\\int(x^{2})dx").toLatex());
+    }
+
+    static void assertError(String message, String latex){
+        RuntimeException e = assertThrows(RuntimeException.class, () -> LatexHelper.toExpr(latex));
+        assertEquals(message, e.getMessage());
+    }
+
+    static void onSmallStack(Runnable test) throws Throwable { //runs test on a thread with a 256k stack, like -Xss256k
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                test.run();
+            } catch(Throwable t){
+                failure[0] = t;
+            }
+        }, "small stack", 256 * 1024);
+        thread.start();
+        thread.join();
+        if(failure[0] != null){
+            throw failure[0];
+        }
+    }
+
+    @Test
+    void millionDeepInputOnASmallStack() throws Throwable {
+        int depth = 1_000_000;
+        onSmallStack(() -> {
+            String latex = "x" + "\\frac{1}{x+".repeat(depth) + "1" + "}".repeat(depth);
+            Expr parsed = LatexHelper.toExpr(latex);
+            assertEquals(latex, parsed.toLatex());
+            assertEquals(parsed, LatexHelper.toExpr(latex));
+            assertEquals(2 * depth + 2, Traversal.depth(parsed)); //the product, a fraction and a sum per level, then the last 1
+        });
+    }
+
+    @Test
+    void deepInputErrors() throws Throwable {
+        int depth = 100_000;
+        onSmallStack(() -> {
+            assertError("unexpected ) at position " + (depth * 5 + 2), "\\sin(".repeat(depth) + "x^" + ")".repeat(depth));
+            assertError("No expressions found at position " + (depth * 6), "\\sqrt{".repeat(depth) + "}".repeat(depth));
+        });
+    }
+
+    @Test
+    void everyConstructNested(){ //each continuation of the parser, inside every other one
+        String[] wraps = {"(%s)", "x^{%s}", "\\sqrt{%s}", "\\sqrt[%s]{2}", "\\sqrt[3]{%s}", "\\frac{%s}{2}", "\\frac{1}{%s}",
+            "\\int(%s)dx", "\\sin(%s)", "\\cos^{%s}(x)", "\\tan^{2}(%s)", "(%s)^{2}", "-%s+y"};
+        for(String outer : wraps){
+            for(String inner : wraps){
+                roundTrips(String.format(outer, String.format(inner, "a+2b")));
+            }
+        }
+    }
+}
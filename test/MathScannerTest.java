@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MathScannerTest {
+
+    @TempDir
+    Path dir;
+
+    List<MathScanner.Segment> scan(String tex) throws IOException {
+        Path file = dir.resolve("doc.tex");
+        Files.writeString(file, tex, StandardCharsets.ISO_8859_1);
+        List<MathScanner.Segment> out = new ArrayList<>();
+        assertEquals(MathScanner.scan(file, out::add), out.size());
+        return out;
+    }
+
+    @Test
+    void everyDelimiterInFileOrder() throws IOException {
+        String tex = "Let $x+1$ and $$\\frac{1}{2}$$, then \\(y^{2}\\) and\n\\[\\sin(z)\\] end.";
+        List<MathScanner.Segment> segments = scan(tex);
+        String[] texts = {"x+1", "\\frac{1}{2}", "y^{2}", "\\sin(z)"};
+        char[] delimiters = {'$', '$', '\\', '\\'};
+        assertEquals(texts.length, segments.size());
+        for(int i = 0; i < texts.length; i++){
+            MathScanner.Segment segment = segments.get(i);
+            assertEquals(texts[i], segment.text.toString());
+            assertEquals(texts[i], tex.substring((int) segment.start, (int) segment.end));
+            assertEquals(delimiters[i], segment.delimiter);
+            assertEquals(LatexHelper.toExpr(texts[i]), segment.expr);
+            assertNull(segment.error);
+        }
+    }
+
+    @Test
+    void escapesAndComments() throws IOException {
+        List<MathScanner.Segment> segments = scan("costs \\$5 % and $not math$\nbut $a$ is, \\\\$b$ too");
+        assertEquals(2, segments.size());
+        assertEquals("a", segments.get(0).text.toString());
+        assertEquals("b", segments.get(1).text.toString());
+    }
+
+    @Test
+    void segmentsThatDontParse() throws IOException {
+        List<MathScanner.Segment> segments = scan("$x+$ and $y$");
+        assertNull(segments.get(0).expr);
+        assertEquals("No expressions found at position 2", segments.get(0).error);
+        assertEquals(LatexHelper.toExpr("y"), segments.get(1).expr);
+    }
+
+    @Test
+    void manyBlocksInOrder() throws IOException {
+        StringBuilder tex = new StringBuilder();
+        int count = MathScanner.BLOCK_SIZE * (MathScanner.MAX_IN_FLIGHT + 3) + 7;
+        for(int i = 0; i < count; i++){
+            tex.append("text $x^{").append(i).append("}$ ");
+        }
+        List<MathScanner.Segment> segments = scan(tex.toString());
+        assertEquals(count, segments.size());
+        for(int i = 0; i < count; i++){
+            assertEquals("x^{" + i + "}", segments.get(i).text.toString());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ParallelParserTest {
+
+    static LatexParser parser(String latex){
+        return new LatexParser(new LatexLexer(latex));
+    }
+
+    static void sameAsSequential(String latex){ //ParallelParser is called directly, so this runs on one core too
+        RuntimeException sequentialError = null;
+        Expr sequential = null;
+        try {
+            sequential = parser(latex).parseInput();
+        } catch(RuntimeException e){
+            sequentialError = e;
+        }
+        if(sequentialError == null){
+            assertEquals(sequential, ParallelParser.parse(parser(latex)));
+        }
+        else {
+            String message = sequentialError.getMessage();
+            RuntimeException e = assertThrows(RuntimeException.class, () -> ParallelParser.parse(parser(latex)));
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    static String terms(Random random, int count, String[] terms, String[] joins){
+        StringBuilder out = new StringBuilder(terms[random.nextInt(terms.length)]);
+        for(int i = 1; i < count; i++){
+            out.append(joins[random.nextInt(joins.length)]).append(terms[random.nextInt(terms.length)]);
+        }
+        return out.toString();
+    }
+
+    @Test
+    void sumsAndProducts(){
+        Random random = new Random(7);
+        String[] terms = {"x", "2y", "\\frac{1}{x+1}", "\\sin^{2}(x)", "(a+b)c", "\\sqrt[3]{x-1}", "x^{2+y}", "3.5"};
+        String sum = terms(random, 20_000, terms, new String[]{"+", "-", "+-", "--"});
+        sameAsSequential(sum);
+        sameAsSequential("-" + sum);
+        sameAsSequential(terms(random, 20_000, terms, new String[]{"", "\\pi", "2"}));
+        sameAsSequential("-+" + sum);
+    }
+
+    @Test
+    void firstErrorInTheInput(){
+        Random random = new Random(11);
+        String sum = terms(random, 20_000, new String[]{"x", "\\frac{1}{y}", "(x+1)^{2}"}, new String[]{"+", "-"});
+        sameAsSequential(sum.substring(0, 30_000) + "^" + sum.substring(30_000));
+        sameAsSequential(sum.substring(0, 30_000) + "+)+(" + sum.substring(30_000));
+        sameAsSequential(sum + "+");
+        sameAsSequential(sum.substring(0, 1_000) + "\\bad" + sum.substring(1_000, 60_000) + "\\int" + sum.substring(60_000));
+    }
+}
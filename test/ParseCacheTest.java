@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ParseCacheTest {
+
+    @Test
+    void rangesHashLikeTheirStrings(){
+        String text = "\\frac{\\sin(x)+1}{x^{2}-\\sqrt[3]{y}}+\\int(x)dx";
+        ParseCache.Source source = new ParseCache.Source(new StringBuilder(text));
+        for(int start = 0; start <= text.length(); start++){
+            for(int end = start; end <= text.length(); end++){
+                ParseCache.Span span = source.span(start, end);
+                assertEquals(text.substring(start, end).hashCode(), span.hashCode());
+                assertEquals(new ParseCache.Source(text.substring(start, end)).span(0, end - start), span);
+            }
+        }
+    }
+
+    @Test
+    void groupsAreSharedBetweenInputs(){
+        ParseCache cache = new ParseCache(100);
+        String group = "\\frac{x^{2}+3x}{\\sqrt{y+1}}";
+        Expr first = cache.parse("\\sin(" + group + ")+1");
+        long misses = cache.misses();
+        Expr second = cache.parse("2^{" + group + "}");
+        assertEquals(1, cache.hits());
+        assertEquals(misses + 1, cache.misses()); //only the whole of the second input
+        assertSame(((Sum) first).addends.get(0).val, ((Power) second).exponent);
+        assertSame(second, cache.parse("2^{" + group + "}"));
+        assertEquals(LatexHelper.toExpr("2^{" + group + "}"), second);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed(){
+        ParseCache cache = new ParseCache(4);
+        for(int i = 0; i < 10; i++){
+            cache.parse("x+" + i);
+        }
+        assertTrue(cache.size() <= 4);
+        assertEquals(10 - cache.size(), cache.evictions());
+        assertThrows(IllegalArgumentException.class, () -> new ParseCache(0));
+    }
+
+    @Test
+    void sameResultsAsAnUncachedParse() throws Throwable {
+        ParseCache cache = new ParseCache(1000);
+        String[] inputs = {"(a+b)^{x+y+z+w+v}", "\\frac{1+x+y+z+w}{1+x+y+z+w}", "\\sin^{2}(\\sqrt[3]{x+y+z+w+v})+1", "x+y+z+w+v+u+t"};
+        for(int round = 0; round < 2; round++){
+            for(String latex : inputs){
+                assertEquals(LatexHelper.toExpr(latex), cache.parse(latex));
+            }
+        }
+        int depth = 100_000;
+        LatexParserTest.onSmallStack(() -> {
+            String deep = "\\sqrt{x+".repeat(depth) + "1" + "}".repeat(depth);
+            assertEquals(LatexHelper.toExpr(deep), cache.parse(deep));
+            assertEquals(LatexHelper.toExpr("x+" + deep), cache.parse("x+" + deep));
+        });
+    }
+
+    @Test
+    void editingAnInputAfterItsParseLeavesTheCacheAlone(){
+        ParseCache cache = new ParseCache(100);
+        StringBuilder input = new StringBuilder("\\sqrt{x^{2}+y^{2}+z^{2}}+1");
+        Expr first = cache.parse(input);
+        input.setLength(0);
+        input.append("\\sqrt{a^{2}+b^{2}+c^{2}}+1");
+        long hits = cache.hits();
+        Expr second = cache.parse(input);
+        assertEquals(hits, cache.hits()); //the edited text is a different key
+        assertEquals(LatexHelper.toExpr(input.toString()), second);
+        assertSame(first, cache.parse("\\sqrt{x^{2}+y^{2}+z^{2}}+1"));
+    }
+}
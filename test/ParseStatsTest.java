@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ParseStatsTest {
+
+    static ParseStats collect(Runnable work){
+        ParseStats stats = new ParseStats();
+        Instrumentation.enable(stats);
+        try {
+            work.run();
+        } finally {
+            Instrumentation.disable();
+        }
+        return stats;
+    }
+
+    @Test
+    void countsEveryConstruct(){
+        ParseStats stats = collect(() -> LatexHelper.toExpr("(x+1)^{2}\\sqrt[3]{y}\\frac{\\pi}{2}+\\int(3x)dx-\\sin^{2}(e x)"));
+        long[] expected = {6, 4, 2, 1, 2, 1, 1, 1, 1, 2, 4}; //in Construct order, the exponents are the power's and the sine's
+        Construct[] constructs = Construct.values();
+        for(int i = 0; i < constructs.length; i++){
+            assertEquals(expected[i], stats.count(constructs[i]), constructs[i].name());
+        }
+        assertEquals(1, stats.parses());
+    }
+
+    @Test
+    void depthFailuresAndReset(){
+        ParseStats stats = collect(() -> {
+            LatexHelper.toExpr("\\sqrt{".repeat(50) + "x" + "}".repeat(50));
+            assertThrows(RuntimeException.class, () -> LatexHelper.toExpr("x+"));
+            LatexHelper.toExpr("x").toLatex();
+        });
+        assertEquals(50, stats.maxDepth());
+        assertEquals(3, stats.parses());
+        assertTrue(stats.toString().startsWith("parses: 3 (1 failed)\n"), stats.toString());
+        assertTrue(stats.toString().contains("emit latency by output length:\n"));
+        stats.reset();
+        assertEquals(0, stats.parses());
+        assertEquals(0, stats.maxDepth());
+        assertEquals(0, stats.count(Construct.SQRT));
+    }
+
+    @Test
+    void powerOfTwoBuckets(){
+        assertEquals(0, ParseStats.bucket(0));
+        assertEquals(1, ParseStats.bucket(1));
+        assertEquals(2, ParseStats.bucket(3));
+        assertEquals(3, ParseStats.bucket(4));
+        assertEquals(ParseStats.BUCKETS - 1, ParseStats.bucket(Long.MAX_VALUE));
+    }
+}
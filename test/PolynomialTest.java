@@ -0,0 +1,46 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class PolynomialTest {
+
+    static Polynomial of(String latex){
+        return Polynomial.of(LatexHelper.toExpr(latex));
+    }
+
+    @Test
+    void expandsToTheCanonicalForm(){
+        assertEquals(of("x^{2}+2xy+y^{2}"), of("(x+y)^{2}"));
+        assertEquals(of("x^{2}-1"), of("(x+1)(x-1)"));
+        assertEquals(of("0"), of("(x+1)-(1+x)"));
+        Expr expanded = Polynomial.expand(LatexHelper.toExpr("(x+y)^{2}"));
+        assertEquals(expanded, LatexHelper.toExpr(expanded.toLatex()));
+        assertEquals(of("(x+y)^{2}"), Polynomial.of(expanded));
+        assertEquals(of("\\frac{x}{2}"), of("0.5x"));
+    }
+
+    @Test
+    void arithmetic(){
+        Polynomial a = of("x+1");
+        assertEquals(of("x^{10}+10x^{9}+45x^{8}+120x^{7}+210x^{6}+252x^{5}+210x^{4}+120x^{3}+45x^{2}+10x+1"), a.pow(10));
+        assertEquals(of("x^{2}+x+\\pi"), a.multiply(of("x")).add(of("\\pi")));
+        assertEquals(of("1-y"), a.subtract(of("x+y")));
+        assertEquals(of("3x+3"), a.scale(3));
+        assertEquals(10, a.pow(10).degree());
+        assertEquals(11, a.pow(10).termCount());
+        assertEquals(Polynomial.constant(1), a.pow(0));
+    }
+
+    @Test
+    void notPolynomials(){
+        assertThrows(IllegalArgumentException.class, () -> of("\\sin(x)"));
+        assertThrows(IllegalArgumentException.class, () -> of("\\sqrt{x}"));
+        assertThrows(IllegalArgumentException.class, () -> of("x^{y}"));
+        assertThrows(IllegalArgumentException.class, () -> of("x^{0.5}"));
+        assertThrows(IllegalArgumentException.class, () -> of("\\frac{1}{x}"));
+        assertThrows(IllegalArgumentException.class, () -> of("x^{200}"));
+        assertThrows(IllegalArgumentException.class, () -> of("abcfghjkm"));
+        assertThrows(IllegalArgumentException.class, () -> of("x").pow(-1));
+    }
+}
@@ -0,0 +1,40 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class QuadratureTest {
+
+    static Quadrature.Result integrate(String latex, double from, double to, long budget){
+        return Quadrature.integrate((Integral) LatexHelper.toExpr(latex), from, to, 1e-10, budget);
+    }
+
+    @Test
+    void knownIntegrals(){
+        Quadrature.Result square = integrate("\\int(x^{2})dx", 0, 3, 1_000_000);
+        assertTrue(square.converged);
+        assertEquals(9, square.value, 1e-9);
+        assertEquals(2, integrate("\\int(\\sin(t))dt", 0, Math.PI, 1_000_000).value, 1e-9);
+        assertEquals(Math.log(2), integrate("\\int(\\frac{1}{x})dx", 1, 2, 1_000_000).value, 1e-9);
+        assertEquals(-9, integrate("\\int(x^{2})dx", 3, 0, 1_000_000).value, 1e-9);
+        assertEquals(0, integrate("\\int(x)dx", 1, 1, 5).value);
+    }
+
+    @Test
+    void budgetRunsOut(){
+        Quadrature.Result result = integrate("\\int(\\sin(\\frac{1}{x}))dx", 0.001, 1, 100);
+        assertFalse(result.converged);
+        assertTrue(result.evaluations <= 100 + 4, result.toString());
+    }
+
+    @Test
+    void badArguments(){
+        assertThrows(IllegalArgumentException.class,
+            () -> Quadrature.integrate(new Integral(new Variable("x"), new Variable("x")), 0, 1, 1e-10, 100));
+        assertThrows(IllegalArgumentException.class, () -> integrate("\\int(x)dx", 0, 1, 4));
+        assertThrows(IllegalArgumentException.class,
+            () -> Quadrature.integrate((Integral) LatexHelper.toExpr("\\int(x)dx"), 0, 1, 0, 100));
+    }
+}
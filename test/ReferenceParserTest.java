@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ReferenceParserTest {
+
+    private static final double[][] POINTS = {{0.7, 1.3}, {-2.5, 0.4}};
+
+    private final Random random = new Random(3);
+
+    private String generate(int depth){ //random input from the grammar both parsers share
+        switch(depth <= 0 ? random.nextInt(4) : random.nextInt(14)){
+            case 0: return String.valueOf(1 + random.nextInt(9));
+            case 1: return "x";
+            case 2: return "y";
+            case 3: return "\\pi";
+            case 4: return generate(depth - 1) + "+" + generate(depth - 1);
+            case 5: return generate(depth - 1) + "-" + generate(depth - 1);
+            case 6: return juxtapose(generate(depth - 1), generate(depth - 1));
+            case 7: return "\\frac{" + generate(depth - 1) + "}{" + generate(depth - 1) + "}";
+            case 8: return "\\sqrt{" + generate(depth - 1) + "}";
+            case 9: return "\\sqrt[3]{" + generate(depth - 1) + "}";
+            case 10: return "\\sin(" + generate(depth - 1) + ")";
+            case 11: return "\\cos^{2}(" + generate(depth - 1) + ")";
+            case 12: return "(" + generate(depth - 1) + ")";
+            default: return "x^{" + generate(depth - 1) + "}";
+        }
+    }
+
+    private static String juxtapose(String left, String right){ //keeps two numbers from running together into one
+        boolean digits = Character.isDigit(left.charAt(left.length() - 1)) && Character.isDigit(right.charAt(0));
+        return left + (digits ? "x" : "") + right;
+    }
+
+    @Test
+    void agreesWithTheReferenceParser(){ //same values for every generated input the reference parser reads without its quirks
+        int compared = 0;
+        for(int i = 0; i < 3000; i++){
+            String latex = generate(3);
+            if(latex.matches(".*\\\\pi[a-zA-Z].*")){ //the lexer reads "\pix" as one command, in both parsers
+                continue;
+            }
+            Expr reference;
+            try {
+                reference = LatexHelper.referenceToExpr(latex);
+            } catch(RuntimeException e){ //the reference parser fails on some inputs, like "(x+1)^{2}"
+                continue;
+            }
+            List<String> names = new ArrayList<>(List.of("x", "y"));
+            List<String> quirks = new ArrayList<>();
+            Traversal.postOrder(reference, node -> {
+                if(node instanceof Variable v && !names.contains(v.name)){
+                    if(v.name.chars().allMatch(Character::isDigit)){ //a number ending its input comes back as a Variable
+                        names.add(v.name);
+                    }
+                    else{ //exponents keep their opening "{" and anything bracketed inside them
+                        quirks.add(v.name);
+                    }
+                }
+            });
+            if(!quirks.isEmpty()){
+                continue;
+            }
+            Expr parsed = LatexHelper.toExpr(latex);
+            Evaluator expected = ExprCompiler.compile(reference, names.toArray(new String[0]));
+            Evaluator actual = ExprCompiler.compile(parsed, "x", "y");
+            for(double[] point : POINTS){
+                double[] bound = new double[names.size()];
+                bound[0] = point[0];
+                bound[1] = point[1];
+                for(int n = 2; n < bound.length; n++){
+                    bound[n] = Double.parseDouble(names.get(n));
+                }
+                double want = expected.eval(bound);
+                double got = actual.eval(point);
+                if(Double.compare(want, got) != 0){
+                    assertEquals(want, got, 1e-9 * Math.max(1, Math.abs(want)), latex);
+                }
+            }
+            compared++;
+        }
+        assertTrue(compared >= 1000, "only " + compared + " inputs compared");
+    }
+}
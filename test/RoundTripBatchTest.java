@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+
+class RoundTripBatchTest {
+
+    static String run(String input) throws Exception {
+        StringWriter out = new StringWriter();
+        try(ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()){
+            new RoundTripBatch().process(new BufferedReader(new StringReader(input)), out, workers);
+        }
+        return out.toString();
+    }
+
+    @Test
+    void oneRowPerLineInOrder() throws Exception {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for(int i = 0; i < RoundTripBatch.BLOCK_SIZE * 3 + 5; i++){
+            input.append("x^{").append(i).append("}+1\n");
+            expected.append("true\tx^{").append(i).append("}+1\n");
+        }
+        assertEquals(expected.toString(), run(input.toString()));
+        assertEquals("false\tx+1\nerror\tNo expressions found at position 4\n", run("((x+1))\nx+y+\n"));
+    }
+
+    static void throwFor(String line, Error error){ //stands in for an Error thrown while the line is processed
+        Instrumentation.enable(new ParseMetrics() {
+            @Override
+            public void parsed(ParseSample sample){
+                if(sample.length == line.length()){
+                    throw error;
+                }
+            }
+
+            @Override
+            public void emitted(int length, long nanos, Object begun){}
+        });
+    }
+
+    @Test
+    void otherErrorsEndTheRun(){
+        throwFor("xy", new OutOfMemoryError());
+        try {
+            IOException e = assertThrows(IOException.class, () -> run("x\nxy\ny\n"));
+            assertInstanceOf(OutOfMemoryError.class, e.getCause());
+        } finally {
+            Instrumentation.disable();
+        }
+    }
+
+    @Test
+    void aStackOverflowOnOneLineFailsOnlyThatLine() throws Exception {
+        String deep = "\\sqrt{".repeat(1000) + "x" + "}".repeat(1000);
+        throwFor(deep, new StackOverflowError());
+        try {
+            assertEquals("true\tx\nerror\tjava.lang.StackOverflowError\ntrue\ty\n", run("x\n" + deep + "\ny\n"));
+        } finally {
+            Instrumentation.disable();
+        }
+    }
+}
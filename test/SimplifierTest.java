@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class SimplifierTest {
+
+    static String simplify(String latex){
+        return Simplifier.simplify(LatexHelper.toExpr(latex)).toLatex();
+    }
+
+    @Test
+    void foldsConstantsAndDropsTrivialTerms(){
+        assertEquals("5", simplify("2+3"));
+        assertEquals("6x", simplify("2x3"));
+        assertEquals("-x", simplify("-1x"));
+        assertEquals("x", simplify("x^{1}"));
+        assertEquals("x", simplify("\\frac{x}{1}"));
+        assertEquals("0", simplify("0x"));
+        assertEquals("x+3", simplify("1+x+2"));
+    }
+
+    @Test
+    void numbersAreWrittenInPlainDigits(){
+        String folded = simplify("0.1+0.2-0.3");
+        assertEquals("0.00000000000000005551115123125783", folded);
+        assertEquals(0.1 + 0.2 - 0.3, LatexHelper.toExpr(folded).num);
+        assertEquals("100000000000000000000", Simplifier.number(1e20).toLatex());
+        assertEquals(1e20, LatexHelper.toExpr(Simplifier.number(1e20).toLatex()).num);
+        assertEquals("0.5", Simplifier.number(0.5).toLatex());
+    }
+
+    static void sameValueAfterPrinting(String latex, double x){ //simplified, printed and parsed back, the value at x doesn't change
+        Expr simplified = Simplifier.simplify(LatexHelper.toExpr(latex));
+        double expected = ExprCompiler.function(LatexHelper.toExpr(latex), "x").applyAsDouble(x);
+        for(String printed : new String[]{simplified.toLatex(), FlatExpr.of(simplified).toLatex()}){
+            assertEquals(expected, ExprCompiler.function(LatexHelper.toExpr(printed), "x").applyAsDouble(x), 1e-9, printed);
+        }
+    }
+
+    @Test
+    void negativeBasesKeepTheirBrackets(){
+        assertEquals("(-3)^{x}", simplify("(2-5)^{x}"));
+        sameValueAfterPrinting("(2-5)^{x}", 2);
+        sameValueAfterPrinting("(-2)^{x}", 2);
+        sameValueAfterPrinting("(0.5-1)^{x}", 2);
+        sameValueAfterPrinting("(1-4)^{x}x+(-1.5)^{2}", 3);
+        assertEquals("(-3.0)^{x}", new Power(new Constant(-3), new Variable("x")).toLatex());
+    }
+
+    @Test
+    void rootsFoldLikeTheCompiledEvaluators(){
+        assertEquals("-2", simplify("\\sqrt[3]{-8}"));
+        assertEquals("-2", simplify("\\sqrt[5]{-32}"));
+        assertEquals("3", simplify("\\sqrt{9}"));
+        assertEquals("\\sqrt[4]{-16}", simplify("\\sqrt[4]{-16}"));
+        for(String latex : new String[]{"\\sqrt[3]{-8}x", "\\sqrt[7]{2-130}+x", "\\sqrt[2+1]{-27}"}){
+            sameValueAfterPrinting(latex, 1.5);
+        }
+    }
+
+    @Test
+    void valuesThatArentFiniteAreNotFolded(){
+        assertInstanceOf(Fraction.class, Simplifier.simplify(LatexHelper.toExpr("\\frac{0}{0}")));
+        assertInstanceOf(Fraction.class, Simplifier.simplify(LatexHelper.toExpr("\\frac{1}{2+-2}")));
+        assertEquals("\\sqrt{-1}", simplify("\\sqrt{-1}"));
+        assertEquals("\\arcsin(2)", simplify("\\arcsin(2)"));
+        assertEquals("0", simplify("\\frac{0}{x}"));
+        assertThrows(IllegalArgumentException.class, () -> Simplifier.number(Double.NaN));
+    }
+
+    @Test
+    void deepTrees() throws Throwable {
+        LatexParserTest.onSmallStack(() -> {
+            int depth = 100_000;
+            Expr simplified = Simplifier.simplify(LatexHelper.toExpr("\\sqrt{x+1+".repeat(depth) + "x" + "}".repeat(depth)));
+            assertEquals(3, ExprCompiler.function(simplified, "x").applyAsDouble(5), 1e-12);
+            assertEquals(Simplifier.number(2), Simplifier.simplify(LatexHelper.toExpr("\\sqrt{2+".repeat(depth) + "2" + "}".repeat(depth))));
+        });
+    }
+}
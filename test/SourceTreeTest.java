@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SourceTreeTest {
+
+    static void checkSpans(SourceTree tree){ //every leaf's range holds the leaf's own text, walked without recursion for deep trees
+        ArrayDeque<SourceTree.Node> nodes = new ArrayDeque<>();
+        ArrayDeque<Integer> starts = new ArrayDeque<>();
+        nodes.push(tree.root);
+        starts.push(tree.root.offset);
+        while(!nodes.isEmpty()){
+            SourceTree.Node node = nodes.pop();
+            int start = starts.pop();
+            if(!node.group && (node.expr instanceof Variable || node.expr instanceof Constant && node.expr.name != null)){
+                assertEquals(node.expr.name, tree.text.substring(start, start + node.length));
+            }
+            for(SourceTree.Node child : node.children){
+                if(child != null){
+                    nodes.push(child);
+                    starts.push(start + child.offset);
+                }
+            }
+        }
+    }
+
+    @Test
+    void editsGiveTheSameTreeAsAFullParse(){
+        Random random = new Random(1);
+        String[] inserts = {"x", "+", "-", "2", "}", "{", "(", ")", "y^{2}", "\\pi", "", "\\sin(x)", "}{", "\\frac{1}{x}"};
+        SourceTree tree = SourceTree.parse("\\int(x^{2}+\\sin^{2}(3x))dx+\\sqrt[3]{x+1}-(x+2)^{3}\\frac{\\cos(y)}{1+\\frac{1}{z}}");
+        for(int i = 0; i < 2000; i++){
+            int offset = random.nextInt(tree.text.length() + 1);
+            int deleted = Math.min(random.nextInt(3), tree.text.length() - offset);
+            String inserted = inserts[random.nextInt(inserts.length)];
+            String updated = tree.text.substring(0, offset) + inserted + tree.text.substring(offset + deleted);
+            Expr full;
+            try {
+                full = LatexHelper.toExpr(updated);
+            } catch(RuntimeException e){
+                continue;
+            }
+            SourceTree edited = tree.edit(offset, deleted, inserted);
+            assertEquals(full, edited.expr, updated);
+            checkSpans(edited);
+            if(random.nextBoolean()){
+                tree = edited;
+            }
+        }
+    }
+
+    @Test
+    void deepInputIsReparsedLocally() throws Throwable {
+        int depth = 100_000;
+        LatexParserTest.onSmallStack(() -> {
+            String latex = "\\sqrt{".repeat(depth) + "x+1" + "}".repeat(depth);
+            SourceTree tree = SourceTree.parse(latex);
+            checkSpans(tree);
+            SourceTree edited = tree.edit(latex.indexOf('1'), 1, "2y");
+            assertEquals(LatexHelper.toExpr(edited.text), edited.expr);
+            assertTrue(edited.reparsed < 10, edited.reparsed + " characters re-parsed");
+            assertEquals(LatexHelper.toExpr("y"), edited.nodeAt(edited.text.indexOf('y')));
+            assertNull(edited.nodeAt(edited.text.length()));
+        });
+    }
+}
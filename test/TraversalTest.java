@@ -0,0 +1,39 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+
+class TraversalTest {
+
+    static ArrayList<String> visited(Expr expr, boolean post){
+        ArrayList<String> out = new ArrayList<>();
+        if(post){
+            Traversal.postOrder(expr, node -> out.add(node.getClass().getSimpleName()));
+        } else {
+            Traversal.preOrder(expr, node -> out.add(node.getClass().getSimpleName()));
+        }
+        return out;
+    }
+
+    @Test
+    void visitOrder(){
+        Expr expr = LatexHelper.toExpr("\\frac{x}{2}+y^{3}");
+        assertEquals(String.join(",", "Sum", "Fraction", "Variable", "Constant", "Power", "Variable", "Constant"), String.join(",", visited(expr, false)));
+        assertEquals(String.join(",", "Variable", "Constant", "Fraction", "Variable", "Constant", "Power", "Sum"), String.join(",", visited(expr, true)));
+        assertEquals(3, Traversal.depth(expr));
+        assertEquals(false, Traversal.deeperThan(expr, 3));
+        assertEquals(true, Traversal.deeperThan(expr, 2));
+    }
+
+    @Test
+    void deepTrees(){
+        int depth = 200_000;
+        Expr expr = LatexHelper.toExpr("\\sqrt{".repeat(depth) + "x" + "}".repeat(depth));
+        assertEquals(depth + 1, Traversal.depth(expr)); //every root has its implied index 2 beside the next level
+        assertEquals(false, Traversal.deeperThan(expr, depth + 1));
+        assertEquals(true, Traversal.deeperThan(expr, depth));
+        int[] count = new int[1];
+        Traversal.postOrder(expr, node -> count[0]++);
+        assertEquals(2 * depth + 1, count[0]);
+    }
+}